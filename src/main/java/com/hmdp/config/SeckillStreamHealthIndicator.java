@@ -0,0 +1,38 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.StreamLagMonitor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * 订单消息队列健康检查 /actuator/health 中的 seckillStream
+ * 只按本节点消费者名下的未确认消息数判断 超过阈值说明本节点落库持续失败 返回 OUT_OF_SERVICE 负载均衡可据此摘除该节点
+ * 消息队列整体积压是所有节点共享的 各节点会同时超过阈值 只作为详情展示 不参与判断
+ */
+@Component
+public class SeckillStreamHealthIndicator implements HealthIndicator {
+
+    private final StreamLagMonitor streamLagMonitor;
+
+    @Value("${hmdp.seckill.stream.health.max-pending:1000}")
+    private long maxPending;
+
+    public SeckillStreamHealthIndicator(StreamLagMonitor streamLagMonitor) {
+        this.streamLagMonitor = streamLagMonitor;
+    }
+
+    @Override
+    public Health health() {
+        long localPending = streamLagMonitor.localPending();
+        Health.Builder builder = localPending > maxPending ? Health.outOfService() : Health.up();
+        return builder
+                .withDetail("localPending", localPending)
+                .withDetail("maxPending", maxPending)
+                .withDetail("lag", streamLagMonitor.totalLag())
+                .withDetail("pending", streamLagMonitor.totalPending())
+                .withDetail("sampledAt", streamLagMonitor.sampledAt())
+                .build();
+    }
+}
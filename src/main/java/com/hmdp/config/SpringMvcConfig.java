@@ -1,20 +1,29 @@
 package com.hmdp.config;
 
+import com.hmdp.interceptor.AdminInterceptor;
 import com.hmdp.interceptor.LoginInterceptor;
 import com.hmdp.interceptor.RefreshTokenInterceptor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.HandlerAdapter;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.util.HashSet;
+import java.util.Set;
+
 @Configuration
 public class SpringMvcConfig implements WebMvcConfigurer {
 
     @Autowired
     StringRedisTemplate stringRedisTemplate;
 
+    // 允许访问运维接口的用户ID 为空时运维接口全部拒绝
+    @Value("${hmdp.admin.user-ids:}")
+    Set<Long> adminUserIds;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate))
@@ -30,6 +39,9 @@ public class SpringMvcConfig implements WebMvcConfigurer {
                         "/shop/**",
                         "/voucher/**")
                 .order(1);
+        registry.addInterceptor(new AdminInterceptor(adminUserIds == null ? new HashSet<>() : adminUserIds))
+                .addPathPatterns("/admin/**")
+                .order(2);
 
     }
 }
@@ -0,0 +1,63 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.HotKeyDetector;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 运维管理控制器 只允许 hmdp.admin.user-ids 中的用户访问
+ * </p>
+ */
+@RestController
+@RequestMapping("/admin")
+public class AdminController {
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+    @Resource
+    private IVoucherService voucherService;
+
+    /**
+     * 查询当前热点key
+     * @return 热点key列表 按访问次数降序
+     */
+    @GetMapping("/hot-keys")
+    public Result queryHotKeys() {
+        return Result.ok(hotKeyDetector.report());
+    }
+
+    /**
+     * 查询秒杀券剩余库存 分段模式下为各分段之和
+     * @param voucherId 优惠券id
+     * @return 剩余库存
+     */
+    @GetMapping("/seckill-stock/{voucherId}")
+    public Result querySeckillStock(@PathVariable("voucherId") Long voucherId) {
+        return voucherService.querySeckillStock(voucherId);
+    }
+
+    /**
+     * 补充秒杀券库存 仅管理员
+     * @param voucherId 优惠券id
+     * @param amount 补充数量
+     * @return 无
+     */
+    @PutMapping("/seckill-stock/{voucherId}")
+    public Result addSeckillStock(@PathVariable("voucherId") Long voucherId, @RequestParam("amount") Integer amount) {
+        if (amount == null || amount <= 0) {
+            return Result.fail("补充数量必须大于0");
+        }
+        voucherService.addSeckillStock(voucherId, amount);
+        return Result.ok();
+    }
+}
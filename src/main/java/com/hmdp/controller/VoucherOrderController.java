@@ -3,12 +3,15 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.SeckillOrderStatus;
+import com.hmdp.utils.SeckillWaitingRoom;
+import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.web.bind.annotation.PathVariable;
-import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.List;
 
 /**
  * <p>
@@ -25,10 +28,61 @@ public class VoucherOrderController {
 
     @Autowired
     private IVoucherOrderService voucherOrderService;
+    @Autowired
+    private SeckillWaitingRoom seckillWaitingRoom;
+    @Autowired
+    private SeckillOrderStatus seckillOrderStatus;
 
     @PostMapping("seckill/{id}")
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         log.info("VoucherOrderController:seckillVoucher");
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    /**
+     * 领取排队号
+     * @param voucherId 优惠券id
+     * @return 排队状态
+     */
+    @PostMapping("seckill/{id}/queue")
+    public Result enterQueue(@PathVariable("id") Long voucherId) {
+        if (!seckillWaitingRoom.isEnabled()) {
+            return Result.fail("未开启排队");
+        }
+        return Result.ok(seckillWaitingRoom.enter(voucherId, UserHolder.getUser().getId()));
+    }
+
+    /**
+     * 查询排队状态 wait大于0时长轮询 放行或售罄时立即返回
+     * @param voucherId 优惠券id
+     * @param wait 最长等待时间(毫秒)
+     * @return 排队状态
+     */
+    @GetMapping("seckill/{id}/queue")
+    public DeferredResult<Result> queryQueue(@PathVariable("id") Long voucherId,
+                                             @RequestParam(value = "wait", defaultValue = "0") Long wait) {
+        if (!seckillWaitingRoom.isEnabled()) {
+            DeferredResult<Result> result = new DeferredResult<>();
+            result.setResult(Result.fail("未开启排队"));
+            return result;
+        }
+        return seckillWaitingRoom.await(voucherId, UserHolder.getUser().getId(), wait);
+    }
+
+    /**
+     * 批量查询秒杀订单状态 wait大于0时长轮询 全部订单处理完成时立即返回
+     * @param orderIds 订单id列表
+     * @param wait 最长等待时间(毫秒)
+     * @return 订单id -> PENDING / PERSISTED / FAILED / UNKNOWN
+     */
+    @GetMapping("status")
+    public DeferredResult<Result> queryOrderStatus(@RequestParam("ids") List<Long> orderIds,
+                                                   @RequestParam(value = "wait", defaultValue = "0") Long wait) {
+        if (orderIds.isEmpty() || orderIds.size() > seckillOrderStatus.maxBatch()) {
+            DeferredResult<Result> result = new DeferredResult<>();
+            result.setResult(Result.fail("订单数量必须在1到" + seckillOrderStatus.maxBatch() + "之间"));
+            return result;
+        }
+        return seckillOrderStatus.await(orderIds, wait);
+    }
 }
@@ -0,0 +1,20 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class HotKeyDTO {
+    private String key;
+    /**
+     * 滑动窗口内的估计访问次数
+     */
+    private Integer count;
+    /**
+     * 最近一次访问时间戳(毫秒)
+     */
+    private Long lastSeen;
+}
@@ -0,0 +1,28 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class QueueStatusDTO {
+    public static final String WAITING = "WAITING";
+    public static final String ADMITTED = "ADMITTED";
+    public static final String SOLD_OUT = "SOLD_OUT";
+    public static final String NOT_QUEUED = "NOT_QUEUED";
+
+    /**
+     * 排队状态 WAITING / ADMITTED / SOLD_OUT / NOT_QUEUED
+     */
+    private String status;
+    /**
+     * 排队位置 从1开始 仅WAITING时有值
+     */
+    private Long position;
+    /**
+     * 建议的下次查询间隔(毫秒)
+     */
+    private Long retryAfterMillis;
+}
@@ -0,0 +1,35 @@
+package com.hmdp.interceptor;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Set;
+
+/**
+ * 运维接口拦截器 只允许配置的管理员用户访问 /admin/**
+ * 在登入拦截器之后执行 此时已确认用户已登入
+ */
+@Slf4j
+public class AdminInterceptor implements HandlerInterceptor {
+
+    private final Set<Long> adminUserIds;
+
+    public AdminInterceptor(Set<Long> adminUserIds) {
+        this.adminUserIds = adminUserIds;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        UserDTO userDTO = UserHolder.getUser();
+        if (userDTO == null || !adminUserIds.contains(userDTO.getId())) {
+            log.info("运维拦截器:非管理员用户:{}", userDTO == null ? null : userDTO.getId());
+            response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+            return false;
+        }
+        return true;
+    }
+}
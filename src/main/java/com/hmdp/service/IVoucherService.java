@@ -17,4 +17,8 @@ public interface IVoucherService extends IService<Voucher> {
     Result queryVoucherOfShop(Long shopId);
 
     void addSeckillVoucher(Voucher voucher);
+
+    Result querySeckillStock(Long voucherId);
+
+    void addSeckillStock(Long voucherId, Integer amount);
 }
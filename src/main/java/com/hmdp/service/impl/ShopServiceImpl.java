@@ -1,24 +1,20 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
-import com.hmdp.utils.RedisData;
+import com.hmdp.utils.CacheInvalidator;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import javax.annotation.PostConstruct;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.*;
@@ -35,12 +31,32 @@ import static com.hmdp.utils.RedisConstants.*;
 @Slf4j
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
-    @Autowired
-    private StringRedisTemplate stringRedisTemplate;
     @Autowired
     private CacheClient cacheClient;
+    @Autowired
+    private CacheInvalidator cacheInvalidator;
+
+    @PostConstruct
+    private void init(){
+        // 商铺详情开启本地缓存 更新时通过广播失效
+        cacheClient.enableLocalCache(CACHE_SHOP_KEY, CACHE_SHOP_LOCAL_TTL, TimeUnit.SECONDS);
+        // 用已有商铺ID初始化布隆过滤器 拦截不存在的ID
+        List<Object> ids = listObjs(new QueryWrapper<Shop>().select("id"));
+        cacheClient.enableBloomFilter(CACHE_SHOP_KEY, ids);
+    }
+
+    /**
+     * 新增商铺 并加入布隆过滤器
+     * @param shop 商铺信息
+     * @return 商铺ID
+     */
+    @Override
+    public Result saveShop(Shop shop) {
+        save(shop);
+        cacheClient.addToBloomFilter(CACHE_SHOP_KEY, shop.getId());
+        return Result.ok(shop.getId());
+    }
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
     /**
      * 根据店铺ID 查询店铺信息
      * @param id 商铺ID
@@ -49,7 +65,7 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Override
     public Result queryById(Long id) {
         Shop shop;
-        // 缓存穿透
+        // 缓存穿透 未命中时合并并发重建
         shop = cacheClient.queryWithPassThrough(CACHE_SHOP_KEY,
                 id,
                 Shop.class,
@@ -88,9 +104,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         // 1. 更新数据库商铺信息
         updateById(shop);
         log.info("ShopServiceImpl:update 更新商铺信息成功{}",shop.getId());
-        // 2. 删除Redis缓存信息
-        stringRedisTemplate.delete(CACHE_SHOP_KEY+id);
-        log.info("ShopServiceImpl:update Redis缓存信息删除成功{}",shop.getId());
+        // 2. 事务提交后删除Redis缓存信息(延迟双删 失败重试) 并广播删除各节点本地缓存
+        cacheInvalidator.invalidateAfterCommit(CACHE_SHOP_KEY+id);
         return Result.ok();
 
     }
@@ -129,50 +144,17 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 //    }
 
     /**
-     * 缓存击穿 互斥锁
+     * 缓存击穿 互斥锁 同一JVM内的并发未命中合并为一次重建
      * @param id
      * @return
      */
     public Shop queryWithMutex(Long id)  {
-        String keyShop = CACHE_SHOP_KEY + id;
-        String shopJson = stringRedisTemplate.opsForValue().get(keyShop);
-        Shop shop;
-
-        // 缓存击中
-        if(StrUtil.isNotBlank(shopJson)){
-            log.info("queryWithMutex 缓存击中:{}",id);
-            return JSONUtil.toBean(shopJson, Shop.class);
-        }
-
-        // 获取互斥锁
-        try{
-
-            if(tryLock(LOCK_SHOP_KEY+id)){
-                // 获取失败
-                Thread.sleep(50);
-                return queryWithMutex(id);
-            }
-
-            // 双重检查
-            if(StrUtil.isNotBlank(shopJson = stringRedisTemplate.opsForValue().get(keyShop))){
-                log.info("queryWithMutex 双重检查缓存击中:{}",id);
-                return JSONUtil.toBean(shopJson, Shop.class);
-            }
-
-            // 获取成功
-            shop = getById(id);
-            if(shop == null){
-                return null;
-            }
-            stringRedisTemplate.opsForValue().set(keyShop,JSONUtil.toJsonStr(shop),CACHE_SHOP_TTL, TimeUnit.SECONDS);
-
-
-        }catch(InterruptedException e){
-            throw new RuntimeException();
-        }finally{
-            unlock(LOCK_SHOP_KEY + id);
-        }
-        return shop;
+        return cacheClient.queryWithMutex(CACHE_SHOP_KEY,
+                id,
+                Shop.class,
+                CACHE_SHOP_TTL,
+                TimeUnit.SECONDS,
+                this::getById);
     }
 
 
@@ -232,32 +214,10 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 //        return shop;
 //    }
 
-    /**
-     * 获得互斥锁
-     * @param key
-     * @return
-     */
-    private boolean tryLock(String key){
-        return Boolean.TRUE.equals(stringRedisTemplate.opsForValue().setIfAbsent(key,"1",LOCK_SHOP_TTL,TimeUnit.MINUTES));
-    }
-
-    /**
-     * 释放锁
-     * @param key
-     */
-    private void unlock(String key){
-        stringRedisTemplate.delete(key);
-    }
-
     public void saveShopToRedis(Long id,Long expireSeconds){
 
         Shop shop = getById(id);
-        String keyShop = CACHE_SHOP_KEY + id;
-
-        RedisData redisData = new RedisData();
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds));
-        redisData.setData(JSONUtil.toJsonStr(shop));
-        stringRedisTemplate.opsForValue().set(keyShop,JSONUtil.toJsonStr(shop));
+        cacheClient.setWithLogicalExpire(CACHE_SHOP_KEY + id, shop, expireSeconds, TimeUnit.SECONDS);
     }
 
 }
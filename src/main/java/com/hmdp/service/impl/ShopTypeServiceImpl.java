@@ -1,15 +1,13 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheClient;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
@@ -27,23 +25,20 @@ import java.util.List;
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
     @Autowired
-    private StringRedisTemplate stringRedisTemplate;
+    private CacheClient cacheClient;
 
     @Override
     public Result queryTypeList() {
-        String typeListJson = stringRedisTemplate.opsForValue().get("typeList");
-        List<ShopType> typeList;
+        List<ShopType> typeList = cacheClient.getList("typeList", ShopType.class);
         // 缓存击中 返回
-        if(StrUtil.isNotBlank(typeListJson)){
-            log.info("ShopType 缓存击中:{}",typeListJson);
-            typeList = JSONUtil.toList(typeListJson, ShopType.class);
+        if(typeList != null){
+            log.info("ShopType 缓存击中:{}",typeList.size());
             return Result.ok(typeList);
         }
         // 缓存未击中
         typeList = query().orderByAsc("sort").list();
-        typeListJson = JSONUtil.toJsonStr(typeList);
-        stringRedisTemplate.opsForValue().set("typeList", typeListJson);
-        log.info("ShopType 缓存未击中:{}", typeListJson);
+        cacheClient.set("typeList", typeList);
+        log.info("ShopType 缓存未击中:{}", typeList.size());
         return Result.ok(typeList);
     }
 }
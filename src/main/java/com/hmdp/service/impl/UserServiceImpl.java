@@ -11,6 +11,8 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RegexUtils;
 import lombok.extern.slf4j.Slf4j;
@@ -22,9 +24,11 @@ import org.springframework.stereotype.Service;
 
 import javax.servlet.http.HttpSession;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 import static com.hmdp.utils.SystemConstants.USER_NICK_NAME_PREFIX;
@@ -45,6 +49,10 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     private UserMapper userMapper;
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private CacheClient cacheClient;
+    @Autowired
+    private CacheInvalidator cacheInvalidator;
 
     @Override
     public Result sendCode(String phone, HttpSession session) {
@@ -110,11 +118,43 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         return Result.ok(token);
     }
 
+    /**
+     * 批量查询用户信息 一次MGET 未命中的一次IN查询
+     * @param ids 用户ID
+     * @return 用户ID -> 用户信息
+     */
+    @Override
+    public Map<Long, UserDTO> queryUserDTOByIds(Collection<Long> ids) {
+        return cacheClient.queryBatchWithPassThrough(CACHE_USER_KEY,
+                ids,
+                UserDTO.class,
+                CACHE_USER_TTL,
+                TimeUnit.MINUTES,
+                missIds -> listByIds(missIds).stream()
+                        .collect(Collectors.toMap(User::getId, user -> BeanUtil.copyProperties(user, UserDTO.class))));
+    }
+
+    /**
+     * 更新用户 提交后删除用户信息缓存
+     * @param user
+     * @return
+     */
+    @Override
+    public boolean updateById(User user) {
+        boolean updated = super.updateById(user);
+        if(updated){
+            cacheInvalidator.invalidateAfterCommit(CACHE_USER_KEY + user.getId());
+        }
+        return updated;
+    }
+
     private User createUserWithPhone(String phone) {
         User user = new User();
         user.setPhone(phone);
         user.setNickName(USER_NICK_NAME_PREFIX+RandomUtil.randomNumbers(6));
         save(user);
+        // 注册前按ID查询过的请求可能缓存了空值
+        cacheInvalidator.invalidateAfterCommit(CACHE_USER_KEY + user.getId());
         return user;
     }
 }
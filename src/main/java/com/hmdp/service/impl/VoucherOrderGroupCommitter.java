@@ -0,0 +1,191 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.ExecutorRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 订单组提交
+ * 汇总各消费线程在一个短窗口内提交的订单 每张券只执行一次 stock = stock - k 与订单插入在同一事务中提交
+ * 热点券的库存行锁由每单持有一次变为每个窗口持有一次
+ * 合并提交失败时按原请求分别提交 隔离出失败的请求
+ * 等待超时的请求先标记为取消 组提交线程不再提交已取消的请求 已被取走的请求则继续等待其结果 避免与调用方的逐条处理重复落库
+ */
+@Component
+@Slf4j
+public class VoucherOrderGroupCommitter {
+
+    private static final String GROUP_COMMIT_EXECUTOR = "order-group-commit";
+
+    @Autowired
+    @Lazy
+    private IVoucherOrderService voucherOrderService;
+    @Autowired
+    private ExecutorRegistry executorRegistry;
+
+    @Value("${hmdp.seckill.group-commit.enabled:false}")
+    private boolean enabled;
+    // 收集窗口 从收到第一个请求开始计算
+    @Value("${hmdp.seckill.group-commit.window-millis:5}")
+    private long windowMillis;
+    // 一次提交的最大订单数
+    @Value("${hmdp.seckill.group-commit.max-orders:500}")
+    private int maxOrders;
+    // 等待提交结果的最长时间
+    @Value("${hmdp.seckill.group-commit.timeout-millis:30000}")
+    private long timeoutMillis;
+
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+    // 容器关闭时置为false 组提交线程退出 线程池的shutdown不会中断该线程
+    private volatile boolean running = true;
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        ThreadPoolExecutor executor = executorRegistry.register(GROUP_COMMIT_EXECUTOR, 1, 1, 1,
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.execute(this::run);
+    }
+
+    /**
+     * 停止组提交线程 尚未取走的请求以失败结束 由调用方按未落库处理
+     * 本类依赖ExecutorRegistry 先于其销毁
+     */
+    @PreDestroy
+    private void destroy() {
+        running = false;
+        Request request;
+        while ((request = requests.poll()) != null) {
+            if (request.claim()) {
+                request.future.completeExceptionally(new IllegalStateException("组提交已停止"));
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 提交订单并等待所在组提交完成
+     * @param voucherOrders
+     * @throws Exception 所在请求落库失败
+     */
+    public void commit(List<VoucherOrder> voucherOrders) throws Exception {
+        if (!running) {
+            throw new IllegalStateException("组提交已停止");
+        }
+        Request request = new Request(voucherOrders);
+        requests.add(request);
+        try {
+            request.future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // 尚未被取走 取消后由调用方处理
+            if (request.cancel()) {
+                throw e;
+            }
+            // 已在提交中 等待其结果 不能让调用方同时逐条落库
+            request.future.get();
+        }
+    }
+
+    private void run() {
+        while (running && !Thread.currentThread().isInterrupted()) {
+            List<Request> group = new ArrayList<>();
+            try {
+                Request first = requests.poll(1, TimeUnit.SECONDS);
+                if (first == null || !first.claim()) {
+                    continue;
+                }
+                group.add(first);
+                int size = first.orders.size();
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMillis);
+                while (size < maxOrders) {
+                    Request next = requests.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    if (!next.claim()) {
+                        continue;
+                    }
+                    group.add(next);
+                    size += next.orders.size();
+                }
+                commitGroup(group, size);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                group.forEach(request -> request.future.completeExceptionally(e));
+            }
+        }
+    }
+
+    private void commitGroup(List<Request> group, int size) {
+        if (group.size() > 1) {
+            List<VoucherOrder> orders = new ArrayList<>(size);
+            group.forEach(request -> orders.addAll(request.orders));
+            try {
+                voucherOrderService.createVoucherOrders(orders);
+                log.debug("VoucherOrderGroupCommitter 组提交 请求数:{} 订单数:{}", group.size(), size);
+                group.forEach(request -> request.future.complete(null));
+                return;
+            } catch (Exception e) {
+                log.warn("VoucherOrderGroupCommitter 组提交失败 按请求分别提交:{}", e.getMessage());
+            }
+        }
+        for (Request request : group) {
+            try {
+                voucherOrderService.createVoucherOrders(request.orders);
+                request.future.complete(null);
+            } catch (Exception e) {
+                request.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static class Request {
+        private static final int WAITING = 0;
+        private static final int CLAIMED = 1;
+        private static final int CANCELLED = 2;
+
+        private final List<VoucherOrder> orders;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        private Request(List<VoucherOrder> orders) {
+            this.orders = orders;
+        }
+
+        /**
+         * 组提交线程取走请求 已取消时返回false
+         */
+        private boolean claim() {
+            return state.compareAndSet(WAITING, CLAIMED);
+        }
+
+        /**
+         * 调用方等待超时后取消 已被取走时返回false
+         */
+        private boolean cancel() {
+            return state.compareAndSet(WAITING, CANCELLED);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.SeckillVoucherMapper;
@@ -8,29 +9,59 @@ import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.ExecutorRegistry;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.OrderJournal;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillDedupe;
+import com.hmdp.utils.SeckillOrderStatus;
+import com.hmdp.utils.SeckillRateLimiter;
+import com.hmdp.utils.SeckillStock;
+import com.hmdp.utils.SeckillWaitingRoom;
+import com.hmdp.utils.SoldOutMemo;
+import com.hmdp.utils.StreamLagMonitor;
 import com.hmdp.utils.UserHolder;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -52,88 +83,703 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private StringRedisTemplate stringRedisTemplate;
     @Autowired
     private RedissonClient redissonClient;
+    @Autowired
+    private HotKeyDetector hotKeyDetector;
+    @Autowired
+    private ExecutorRegistry executorRegistry;
+    @Autowired
+    private SeckillStock seckillStock;
+    @Autowired
+    private SoldOutMemo soldOutMemo;
+    @Autowired
+    private SeckillDedupe seckillDedupe;
+    @Autowired
+    private SeckillRateLimiter seckillRateLimiter;
+    @Autowired
+    private SeckillWaitingRoom seckillWaitingRoom;
+    @Autowired
+    private SeckillOrderStatus seckillOrderStatus;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    private VoucherOrderGroupCommitter groupCommitter;
+    @Autowired
+    private StreamLagMonitor streamLagMonitor;
 
+    // 注入自身代理 保证消费线程中调用的事务方法生效
+    @Autowired
+    @Lazy
     private IVoucherOrderService proxy;
 
-    private final static DefaultRedisScript<Long> SECKILL_SCRIPT;
+    // 每次从消息队列读取的最大消息数 为1时逐条处理
+    @Value("${hmdp.seckill.consumer.batch-size:1}")
+    private int batchSize;
+    // 批量读取时 凑满一批最多等待的时间
+    @Value("${hmdp.seckill.consumer.linger-millis:50}")
+    private long lingerMillis;
+    // 无锁落库 不再为每个订单获取分布式锁 依赖 tb_voucher_order 的 (user_id, voucher_id) 唯一索引去重
+    @Value("${hmdp.seckill.consumer.lock-free:false}")
+    private boolean lockFree;
+
+    // 秒杀脚本 KEYS[1]为本次扣减的库存分段 返回 {结果码, 订单ID}
+    private final static DefaultRedisScript<List> SECKILL_SCRIPT;
+    // 撤销秒杀脚本的库存扣减与一人一单记录 返回归还后的库存
+    private final static DefaultRedisScript<Long> SECKILL_ROLLBACK_SCRIPT;
     static {
         SECKILL_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_SCRIPT.setResultType(Long.class);
+        SECKILL_SCRIPT.setResultType(List.class);
         SECKILL_SCRIPT.setLocation(new ClassPathResource("script/seckill.lua"));
+        SECKILL_ROLLBACK_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_ROLLBACK_SCRIPT.setResultType(Long.class);
+        SECKILL_ROLLBACK_SCRIPT.setLocation(new ClassPathResource("script/seckill_rollback.lua"));
     }
 
-    private BlockingQueue<VoucherOrder> orderTaskQueue = new ArrayBlockingQueue<VoucherOrder>(1024*1024);
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final String SECKILL_ORDER_EXECUTOR = "seckill-order";
+    private static final String ORDER_JOURNAL_EXECUTOR = "order-journal";
+    private static final String CONSUMER_SCALER_EXECUTOR = "seckill-consumer-scaler";
+
+    // 按积压自动伸缩消费线程数
+    @Value("${hmdp.seckill.consumer.autoscale.enabled:false}")
+    private boolean autoscaleEnabled;
+    @Value("${hmdp.seckill.consumer.autoscale.min-threads:1}")
+    private int minConsumerThreads;
+    @Value("${hmdp.seckill.consumer.autoscale.max-threads:8}")
+    private int maxConsumerThreads;
+    // 每个消费线程承担的积压消息数
+    @Value("${hmdp.seckill.consumer.autoscale.lag-per-thread:1000}")
+    private long lagPerThread;
+    // 采样积压与调整线程数的间隔 未开启自动伸缩时仍按该间隔采样积压与裁剪消息队列
+    @Value("${hmdp.seckill.consumer.autoscale.interval-millis:5000}")
+    private long autoscaleIntervalMillis;
+
+    // 定期裁剪已确认的消息
+    @Value("${hmdp.seckill.stream.retention.enabled:true}")
+    private boolean retentionEnabled;
+    // 已确认消息至少保留的时间 0为确认后即可裁剪
+    @Value("${hmdp.seckill.stream.retention.retain-seconds:0}")
+    private long retainSeconds;
+    // 分区积压(消费者组未投递+未确认)达到该值时拒绝下单 返回系统繁忙 0为不限制
+    // 按定期采样的积压判断 不依赖消息队列长度 未裁剪已确认消息时也不会误判
+    @Value("${hmdp.seckill.stream.backpressure.max-backlog:0}")
+    private long maxBacklog;
+
+    private ThreadPoolExecutor consumerExecutor;
+    // 序号 -> 运行中的消费线程
+    private final Map<Integer, VoucherOrderHandler> handlers = new ConcurrentHashMap<>();
+    // 容器关闭中 消费线程与订单日志消费线程退出循环 不再启动新的消费线程
+    private volatile boolean shuttingDown;
+
+    // 订单队列 stream: Redis消息队列 journal: 本地内存映射订单日志 适用于单节点部署
+    @Value("${hmdp.seckill.queue.mode:stream}")
+    private String queueMode;
+    @Value("${hmdp.seckill.journal.dir:./data/order-journal}")
+    private String journalDir;
+    // 每个日志段的记录数 每条记录32字节
+    @Value("${hmdp.seckill.journal.segment-records:1048576}")
+    private int journalSegmentRecords;
+    @Value("${hmdp.seckill.journal.ring-size:65536}")
+    private int journalRingSize;
+    @Value("${hmdp.seckill.journal.force-on-append:false}")
+    private boolean journalForceOnAppend;
+    // 环形缓冲区满时追加的最长等待时间 超时拒绝下单
+    @Value("${hmdp.seckill.journal.append-timeout-millis:50}")
+    private long journalAppendTimeoutMillis;
+
+    private OrderJournal orderJournal;
+
+    // 订单消息队列分区数 用户按ID哈希路由到分区 同一用户的订单在同一分区内有序
+    @Value("${hmdp.seckill.stream.partitions:1}")
+    private int partitions;
+    // 本节点消费线程数
+    @Value("${hmdp.seckill.consumer.threads:1}")
+    private int consumerThreads;
+    // 节点标识 消费者名称为 节点标识-线程序号 默认 pid@hostname
+    @Value("${hmdp.seckill.consumer.node-id:}")
+    private String nodeId;
+    // 持有一个分区的租约时长 到期后释放并轮换到下一个分区
+    @Value("${hmdp.seckill.consumer.lease-seconds:30}")
+    private long leaseSeconds;
+    // 消息最大投递次数 超过后转入死信队列
+    @Value("${hmdp.seckill.recovery.max-deliveries:5}")
+    private long maxDeliveries;
+    // 重试退避基数 第n次重试至少空闲 base * 2^(n-1)
+    @Value("${hmdp.seckill.recovery.retry-backoff-millis:1000}")
+    private long retryBackoffMillis;
+    // 其他消费者的消息空闲超过该时间后接管
+    @Value("${hmdp.seckill.recovery.claim-idle-millis:60000}")
+    private long claimIdleMillis;
+    @Value("${hmdp.seckill.recovery.interval-millis:5000}")
+    private long recoveryIntervalMillis;
+    @Value("${hmdp.seckill.recovery.batch-size:100}")
+    private long recoveryBatch;
+
+    // 分区 -> 最早未确认消息的空闲时间(毫秒)
+    private final Map<String, Long> recoveryLag = new ConcurrentHashMap<>();
 
     @PostConstruct
     private void init(){
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        if(StrUtil.isBlank(nodeId)){
+            nodeId = ManagementFactory.getRuntimeMXBean().getName();
+        }
+        Gauge.builder("seckill.stream.dlq.size", this, service -> service.deadLetterSize())
+                .register(meterRegistry);
+        if(isJournalMode()){
+            initJournal();
+            return;
+        }
+        for (int i = 0; i < partitions; i++) {
+            String streamKey = streamKey(i);
+            createGroupIfAbsent(streamKey);
+            Gauge.builder("seckill.stream.recovery.lag", recoveryLag, lag -> lag.getOrDefault(streamKey, 0L))
+                    .tag("stream", streamKey)
+                    .baseUnit("milliseconds")
+                    .register(meterRegistry);
+        }
+        // 开启自动伸缩时线程池按最大线程数创建 实际消费线程数在上下限之间调整
+        int poolSize = autoscaleEnabled ? Math.max(maxConsumerThreads, consumerThreads) : consumerThreads;
+        consumerExecutor = executorRegistry.register(SECKILL_ORDER_EXECUTOR,
+                poolSize, poolSize, 1, new ThreadPoolExecutor.AbortPolicy());
+        for (int i = 0; i < consumerThreads; i++) {
+            startHandler();
+        }
+        Gauge.builder("seckill.consumer.threads", this, service -> service.activeHandlers()).register(meterRegistry);
+        List<String> streamKeys = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            streamKeys.add(streamKey(i));
+        }
+        executorRegistry.registerScheduled(CONSUMER_SCALER_EXECUTOR, 1).scheduleWithFixedDelay(
+                () -> scaleConsumers(streamKeys), autoscaleIntervalMillis, autoscaleIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private long activeHandlers(){
+        return handlers.values().stream().filter(handler -> !handler.stopped).count();
+    }
+
+    /**
+     * 启动一个消费线程 消费者名称使用最小的空闲序号 保持消费者名称稳定
+     */
+    private synchronized void startHandler(){
+        if(shuttingDown){
+            return;
+        }
+        int index = 0;
+        while(handlers.containsKey(index)){
+            index++;
+        }
+        VoucherOrderHandler handler = new VoucherOrderHandler(nodeId + "-" + index, index);
+        handlers.put(index, handler);
+        try{
+            consumerExecutor.execute(handler);
+        }catch(RejectedExecutionException e){
+            handlers.remove(index);
+            log.warn("VoucherOrderService 消费线程池已满:{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 裁剪已确认的消息 XTRIM MINID ~ (Redis 6.2+)
+     * 裁剪点取最早未确认消息与last-delivered-id中较小者 之前的消息都已确认
+     * 配置保留时间时 不裁剪保留时间内的消息
+     * @param streamKey
+     */
+    private void trimAcknowledged(String streamKey){
+        try{
+            StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(streamKey);
+            String minId = null;
+            for (int i = 0; i < groups.groupCount(); i++) {
+                if(SECKILL_STREAM_GROUP.equals(groups.get(i).groupName())){
+                    minId = groups.get(i).lastDeliveredId();
+                }
+            }
+            if(minId == null){
+                return;
+            }
+            PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(streamKey, SECKILL_STREAM_GROUP);
+            if(summary != null && summary.getTotalPendingMessages() > 0){
+                minId = olderId(minId, summary.minMessageId());
+            }
+            if(retainSeconds > 0){
+                minId = olderId(minId, (System.currentTimeMillis() - retainSeconds * 1000) + "-0");
+            }
+            String trimId = minId;
+            Long trimmed = stringRedisTemplate.execute((RedisCallback<Long>) connection -> (Long) connection.execute("XTRIM",
+                    streamKey.getBytes(StandardCharsets.UTF_8),
+                    "MINID".getBytes(StandardCharsets.UTF_8),
+                    "~".getBytes(StandardCharsets.UTF_8),
+                    trimId.getBytes(StandardCharsets.UTF_8)));
+            if(trimmed != null && trimmed > 0){
+                log.debug("VoucherOrderService 裁剪已确认消息:{} 数量:{} 裁剪点:{}", streamKey, trimmed, trimId);
+            }
+        }catch(Exception e){
+            log.warn("VoucherOrderService:trimAcknowledged 裁剪消息队列失败:{} {}", streamKey, e.getMessage());
+        }
     }
 
+    /**
+     * 比较两个消息ID 返回较早的一个
+     * @param a
+     * @param b
+     * @return
+     */
+    private static String olderId(String a, String b){
+        String[] x = a.split("-");
+        String[] y = b.split("-");
+        int cmp = Long.compare(Long.parseLong(x[0]), Long.parseLong(y[0]));
+        if(cmp == 0){
+            cmp = Long.compare(Long.parseLong(x[1]), Long.parseLong(y[1]));
+        }
+        return cmp <= 0 ? a : b;
+    }
+
+    /**
+     * 采样消息队列积压 开启自动伸缩时按积压调整消费线程数
+     * 目标线程数 = 积压(未投递+未确认) / 每线程积压 限制在上下限之间 扩容一次到位 缩容每次减少一个线程
+     * 分区同一时刻只由一个消费者消费 线程数超过分区数没有意义
+     * @param streamKeys
+     */
+    private void scaleConsumers(List<String> streamKeys){
+        try{
+            streamLagMonitor.sample(streamKeys, SECKILL_STREAM_GROUP, nodeId + "-", autoscaleEnabled || maxBacklog > 0);
+            if(retentionEnabled){
+                streamKeys.forEach(this::trimAcknowledged);
+            }
+            if(!autoscaleEnabled){
+                return;
+            }
+            long backlog = streamLagMonitor.totalLag() + streamLagMonitor.totalPending();
+            int upper = Math.min(maxConsumerThreads, partitions);
+            int lower = Math.min(minConsumerThreads, upper);
+            int target = (int) Math.min(upper, Math.max(lower, (backlog + lagPerThread - 1) / lagPerThread));
+            synchronized (this){
+                int current = (int) activeHandlers();
+                if(target > current){
+                    log.info("VoucherOrderService 扩容消费线程 积压:{} 线程数:{} -> {}", backlog, current, target);
+                    for (int i = current; i < target; i++) {
+                        startHandler();
+                    }
+                }else if(target < current){
+                    // 停止序号最大的消费线程 当前批次处理完后退出 退出前序号不会被复用
+                    handlers.values().stream().filter(handler -> !handler.stopped)
+                            .max((a, b) -> Integer.compare(a.index, b.index))
+                            .ifPresent(handler -> handler.stopped = true);
+                    log.info("VoucherOrderService 缩容消费线程 积压:{} 线程数:{} -> {}", backlog, current, current - 1);
+                }
+            }
+        }catch(Exception e){
+            log.error("VoucherOrderService:scaleConsumers 调整消费线程失败:{}", e.getMessage());
+        }
+    }
+
+    private boolean isJournalMode(){
+        return "journal".equals(queueMode);
+    }
+
+    /**
+     * 启动订单日志消费线程 由消费线程打开日志并重放上次停止时尚未落库的订单
+     */
+    private void initJournal(){
+        orderJournal = new OrderJournal(new File(journalDir), journalSegmentRecords, journalRingSize,
+                journalForceOnAppend);
+        Gauge.builder("seckill.journal.backlog", orderJournal, OrderJournal::backlog)
+                .register(meterRegistry);
+        executorRegistry.register(ORDER_JOURNAL_EXECUTOR, 1, 1, 1, new ThreadPoolExecutor.AbortPolicy())
+                .execute(new JournalDrainer());
+    }
+
+    /**
+     * 容器关闭时通知消费线程在当前批次处理完后退出
+     * 线程池的shutdown不会中断消费循环 不通知时要等到ExecutorRegistry超时后强制关闭
+     * 本类依赖ExecutorRegistry 先于其销毁
+     */
+    @PreDestroy
+    private synchronized void destroy(){
+        shuttingDown = true;
+        handlers.values().forEach(handler -> handler.stopped = true);
+        if(orderJournal != null){
+            orderJournal.flush();
+        }
+    }
+
+    private double deadLetterSize(){
+        try{
+            Long size = stringRedisTemplate.opsForStream().size(SECKILL_STREAM_DLQ_KEY);
+            return size == null ? 0 : size;
+        }catch(Exception e){
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * 分区对应的消息队列 只有一个分区时沿用 stream.order
+     * @param partition
+     * @return
+     */
+    private String streamKey(int partition){
+        return partitions <= 1 ? SECKILL_STREAM_KEY : SECKILL_STREAM_KEY + ":" + partition;
+    }
+
+    /**
+     * 创建消费者组 消息队列不存在时一并创建
+     * @param streamKey
+     */
+    private void createGroupIfAbsent(String streamKey){
+        try{
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("XGROUP",
+                    "CREATE".getBytes(StandardCharsets.UTF_8),
+                    streamKey.getBytes(StandardCharsets.UTF_8),
+                    SECKILL_STREAM_GROUP.getBytes(StandardCharsets.UTF_8),
+                    "0".getBytes(StandardCharsets.UTF_8),
+                    "MKSTREAM".getBytes(StandardCharsets.UTF_8)));
+            log.info("VoucherOrderService 创建消费者组:{}", streamKey);
+        }catch(Exception e){
+            // BUSYGROUP 消费者组已存在
+            log.debug("VoucherOrderService 消费者组已存在:{}", streamKey);
+        }
+    }
+
+    /**
+     * 消费线程 轮流获取分区租约 同一时刻一个分区只被一个消费者消费
+     */
     private class VoucherOrderHandler implements Runnable{
 
+        private final String consumerName;
+        private final int index;
+        private int next;
+        // 缩容或容器关闭时置为true 线程在当前批次处理完后退出
+        private volatile boolean stopped;
+
+        private VoucherOrderHandler(String consumerName, int index) {
+            this.consumerName = consumerName;
+            this.index = index;
+            this.next = index;
+        }
+
         @Override
         public void run() {
-            while(true){
-                try {
-                    // 1. 获取消息队列消息
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofMinutes(2)),
-                            StreamOffset.create("stream.order", ReadOffset.lastConsumed())
-                    );
-                    // 2.判断是否获取成功
-                    if(list==null||list().isEmpty()){
-                        //获取失败
+            int misses = 0;
+            // 缩容或容器关闭时stopped置为true
+            while(!Thread.currentThread().isInterrupted() && !stopped){
+                String streamKey = streamKey(next++ % partitions);
+                RLock lease = redissonClient.getLock(SECKILL_STREAM_LEASE_KEY + streamKey);
+                if(!lease.tryLock()){
+                    // 所有分区都被其他消费者持有 稍后重试
+                    if(++misses >= partitions){
+                        misses = 0;
+                        try{
+                            Thread.sleep(1000);
+                        }catch(InterruptedException e){
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    continue;
+                }
+                misses = 0;
+                try{
+                    log.info("VoucherOrderService 消费者:{} 获取分区:{}", consumerName, streamKey);
+                    consume(streamKey, consumerName, System.currentTimeMillis() + leaseSeconds * 1000, this);
+                }finally{
+                    try{
+                        lease.unlock();
+                    }catch(IllegalMonitorStateException e){
+                        log.warn("VoucherOrderService 分区租约已失效:{}", streamKey);
+                    }
+                }
+            }
+            handlers.remove(index, this);
+        }
+    }
+
+    /**
+     * 在租约期内消费一个分区
+     * @param streamKey
+     * @param consumerName
+     * @param deadline 租约到期时间
+     * @param handler 所属消费线程 缩容停止时提前结束
+     */
+    private void consume(String streamKey, String consumerName, long deadline, VoucherOrderHandler handler){
+        // 先处理未确认的消息 包括已下线消费者遗留的消息
+        recoverPending(streamKey, consumerName);
+        long nextRecovery = System.currentTimeMillis() + recoveryIntervalMillis;
+        while(!Thread.currentThread().isInterrupted() && !handler.stopped && System.currentTimeMillis() < deadline){
+            if(System.currentTimeMillis() >= nextRecovery){
+                recoverPending(streamKey, consumerName);
+                nextRecovery = System.currentTimeMillis() + recoveryIntervalMillis;
+            }
+            try {
+                // 1. 获取消息队列消息
+                List<MapRecord<String, Object, Object>> list = readBatch(streamKey, consumerName);
+                // 2.判断是否获取成功
+                if(list.isEmpty()){
+                    //获取失败
+                    continue;
+                }
+                // 3.获取成功 处理并一次确认整批消息
+                handleRecords(streamKey, list);
+
+            } catch (Exception e) {
+                log.error(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 读取一批消息 首次阻塞等待 之后在linger时间内尽量凑满一批
+     * @return 消息列表 没有消息时为空
+     */
+    private List<MapRecord<String, Object, Object>> readBatch(String streamKey, String consumerName) {
+        List<MapRecord<String, Object, Object>> batch = new ArrayList<>();
+        List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                Consumer.from(SECKILL_STREAM_GROUP, consumerName),
+                StreamReadOptions.empty().count(batchSize).block(Duration.ofSeconds(2)),
+                StreamOffset.create(streamKey, ReadOffset.lastConsumed())
+        );
+        if(list == null || list.isEmpty()){
+            return batch;
+        }
+        batch.addAll(list);
+        long deadline = System.currentTimeMillis() + lingerMillis;
+        while(batch.size() < batchSize){
+            long remaining = deadline - System.currentTimeMillis();
+            if(remaining <= 0){
+                break;
+            }
+            list = stringRedisTemplate.opsForStream().read(
+                    Consumer.from(SECKILL_STREAM_GROUP, consumerName),
+                    StreamReadOptions.empty().count(batchSize - batch.size()).block(Duration.ofMillis(remaining)),
+                    StreamOffset.create(streamKey, ReadOffset.lastConsumed())
+            );
+            if(list == null || list.isEmpty()){
+                break;
+            }
+            batch.addAll(list);
+        }
+        return batch;
+    }
+
+    /**
+     * 处理一批消息 落库后一次XACK确认成功的消息
+     * 处理失败的消息留在pending列表中 由recoverPending退避重试
+     * @param streamKey
+     * @param records
+     */
+    private void handleRecords(String streamKey, List<MapRecord<String, Object, Object>> records) {
+        List<VoucherOrder> voucherOrders = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            voucherOrders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+        }
+        boolean[] persisted = persistOrders(voucherOrders);
+        List<RecordId> acked = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            if(persisted[i]){
+                acked.add(records.get(i).getId());
+            }else{
+                log.warn("VoucherOrderService:handleRecords 订单处理失败 稍后重试 recordId:{}", records.get(i).getId());
+            }
+        }
+        // 4.确认
+        if(!acked.isEmpty()){
+            stringRedisTemplate.opsForStream().acknowledge(streamKey, SECKILL_STREAM_GROUP,
+                    acked.toArray(new RecordId[0]));
+        }
+    }
+
+    /**
+     * 订单落库 多条时批量落库 批量失败时逐条处理
+     * @param voucherOrders
+     * @return 每个订单是否已落库 主键冲突说明此前已落库 视为成功
+     */
+    private boolean[] persistOrders(List<VoucherOrder> voucherOrders) {
+        boolean[] persisted = new boolean[voucherOrders.size()];
+        // 开启组提交时单条消息也并入组提交
+        if(voucherOrders.size() > 1 || groupCommitter.isEnabled()){
+            try{
+                if(groupCommitter.isEnabled()){
+                    groupCommitter.commit(voucherOrders);
+                }else{
+                    proxy.createVoucherOrders(voucherOrders);
+                }
+                Arrays.fill(persisted, true);
+                return persisted;
+            }catch(Exception e){
+                log.warn("VoucherOrderService:persistOrders 批量落库失败 逐条处理:{}", e.getMessage());
+            }
+        }
+        for (int i = 0; i < voucherOrders.size(); i++) {
+            try{
+                handleVoucherOrder(voucherOrders.get(i));
+                persisted[i] = true;
+            }catch(DuplicateKeyException e){
+                log.info("VoucherOrderService:persistOrders 订单已存在:{}", voucherOrders.get(i).getId());
+                persisted[i] = true;
+            }catch(Exception e){
+                log.warn("VoucherOrderService:persistOrders 订单落库失败:{} {}", voucherOrders.get(i).getId(), e.getMessage());
+            }
+        }
+        return persisted;
+    }
+
+    /**
+     * 订单日志消费线程 从环形缓冲区批量取出订单落库 落库后推进检查点
+     */
+    private class JournalDrainer implements Runnable{
+        @Override
+        public void run() {
+            try{
+                orderJournal.open(VoucherOrderServiceImpl.this::persistJournalOrders, Math.max(batchSize, 100));
+            }catch(Exception e){
+                log.error("VoucherOrderService:JournalDrainer 打开订单日志失败:{}", journalDir, e);
+                return;
+            }
+            // 关闭时尚未落库的订单在重启后从检查点重放
+            while(!Thread.currentThread().isInterrupted() && !shuttingDown){
+                try{
+                    List<VoucherOrder> orders = orderJournal.poll(batchSize, 1000);
+                    if(orders.isEmpty()){
+                        // 空闲时刷盘
+                        orderJournal.flush();
                         continue;
                     }
-                    // 3.获取成功
-                    MapRecord<String, Object, Object> entries = list.get(0);
-                    Map<Object, Object> value = entries.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    handleVoucherOrder(voucherOrder);
-                    // 4.确认
-                    stringRedisTemplate.opsForStream().acknowledge("stream.order","g1",entries.getId());
-
-                } catch (Exception e) {
-                    log.error(e.getMessage());
-                    handlePandingList();
+                    persistJournalOrders(orders);
+                    orderJournal.commit(orders.size());
+                }catch(Exception e){
+                    log.error("VoucherOrderService:JournalDrainer 处理订单日志失败:{}", e.getMessage());
                 }
             }
         }
     }
 
-    private void handlePandingList() {
-        while(true){
+    /**
+     * 订单日志中的订单落库 失败的订单退避重试直到成功
+     * 日志记录是订单的唯一副本 数据库不可用时不转入死信队列 检查点停在此批之前 停止后重启时重放
+     * @param orders
+     */
+    private void persistJournalOrders(List<VoucherOrder> orders) {
+        List<VoucherOrder> pending = orders;
+        for (int attempt = 1; !pending.isEmpty(); attempt++) {
+            boolean[] persisted = persistOrders(pending);
+            List<VoucherOrder> failed = new ArrayList<>();
+            for (int i = 0; i < pending.size(); i++) {
+                if(!persisted[i]){
+                    failed.add(pending.get(i));
+                }
+            }
+            if(failed.isEmpty()){
+                return;
+            }
+            if(attempt % maxDeliveries == 0){
+                log.error("VoucherOrderService:persistJournalOrders 订单日志落库已失败{}次 持续重试 未落库:{}",
+                        attempt, failed.size());
+            }
             try{
-                // 1. 获取判定队列
-                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                        Consumer.from("g1", "c1"),
-                        StreamReadOptions.empty().count(1),
-                        StreamOffset.create("stream.order", ReadOffset.from("0"))
-                );
-                if(list==null||list.isEmpty()){
+                Thread.sleep(retryBackoffMillis << Math.min(attempt - 1, 10));
+            }catch(InterruptedException e){
+                // 停止时未落库的订单在重启后从检查点重放
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("订单日志落库被中断");
+            }
+            pending = failed;
+        }
+    }
+
+    /**
+     * 处理pending列表 基于XPENDING的投递次数
+     * 本消费者的消息按投递次数指数退避后重新处理 其他消费者的消息空闲超过claim-idle后XCLAIM接管
+     * 投递次数达到上限的消息转入死信队列
+     * @param streamKey
+     * @param consumerName
+     */
+    private void recoverPending(String streamKey, String consumerName) {
+        try{
+            PendingMessages pending = stringRedisTemplate.opsForStream().pending(
+                    streamKey, SECKILL_STREAM_GROUP, Range.unbounded(), recoveryBatch);
+            long lag = 0;
+            for (PendingMessage message : pending) {
+                if(Thread.currentThread().isInterrupted()){
                     break;
                 }
-                MapRecord<String, Object, Object> entries = list.get(0);
-                Map<Object, Object> value = entries.getValue();
-                VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                handleVoucherOrder(voucherOrder);
-                stringRedisTemplate.opsForStream().acknowledge("stream.order","g1",entries.getId());
-            }catch(Exception e){
-                log.error(e.getMessage());
+                long idle = message.getElapsedTimeSinceLastDelivery().toMillis();
+                lag = Math.max(lag, idle);
+                long deliveries = message.getTotalDeliveryCount();
+                long minIdle = consumerName.equals(message.getConsumerName())
+                        ? retryBackoffMillis << Math.min(deliveries - 1, 10)
+                        : claimIdleMillis;
+                if(idle < minIdle){
+                    continue;
+                }
+                // XCLAIM 重置空闲时间并增加投递次数 被其他消费者抢先时返回空
+                List<ByteRecord> claimed = stringRedisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                        connection.streamCommands().xClaim(
+                                streamKey.getBytes(StandardCharsets.UTF_8),
+                                SECKILL_STREAM_GROUP,
+                                consumerName,
+                                RedisStreamCommands.XClaimOptions.minIdle(Duration.ofMillis(minIdle))
+                                        .ids(message.getId())));
+                if(claimed == null || claimed.isEmpty()){
+                    continue;
+                }
+                Map<String, String> value = new HashMap<>();
+                claimed.get(0).getValue().forEach((k, v) ->
+                        value.put(new String(k, StandardCharsets.UTF_8), new String(v, StandardCharsets.UTF_8)));
+                if(deliveries >= maxDeliveries){
+                    deadLetter(streamKey, message.getId(), value, deliveries);
+                    continue;
+                }
+                try{
+                    handleVoucherOrder(BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true));
+                    stringRedisTemplate.opsForStream().acknowledge(streamKey, SECKILL_STREAM_GROUP, message.getId());
+                }catch(Exception e){
+                    log.warn("VoucherOrderService:recoverPending 第{}次处理失败 recordId:{} {}",
+                            deliveries + 1, message.getId(), e.getMessage());
+                }
+            }
+            recoveryLag.put(streamKey, lag);
+        }catch(Exception e){
+            log.error("VoucherOrderService:recoverPending 处理pending列表失败:{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 消息转入死信队列并确认 与下单时落日志失败的处理一致 撤销秒杀脚本的结果(归还库存 删除一人一单记录 订单状态记为失败)
+     * 死信队列中的消息只用于排查 不会重放
+     * @param streamKey
+     * @param recordId
+     * @param value
+     * @param deliveries
+     */
+    private void deadLetter(String streamKey, RecordId recordId, Map<String, String> value, long deliveries) {
+        Map<String, String> entry = new HashMap<>(value);
+        entry.put("stream", streamKey);
+        entry.put("recordId", recordId.getValue());
+        entry.put("deliveries", String.valueOf(deliveries));
+        stringRedisTemplate.opsForStream().add(MapRecord.create(SECKILL_STREAM_DLQ_KEY, entry));
+        stringRedisTemplate.opsForStream().acknowledge(streamKey, SECKILL_STREAM_GROUP, recordId);
+        if(value.get("id") != null){
+            VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
+            // 旧消息没有记录库存分段 归还到用户的主分段
+            String stockKey = value.get("stockKey");
+            if(stockKey == null){
+                Long voucherId = voucherOrder.getVoucherId();
+                stockKey = seckillStock.key(voucherId, seckillStock.homeSegment(voucherId, voucherOrder.getUserId()));
             }
+            rollbackSeckill(voucherOrder, stockKey);
         }
+        log.error("VoucherOrderService:deadLetter 超过最大投递次数 转入死信队列 recordId:{} 订单:{}", recordId, value);
     }
 
     private void handleVoucherOrder(VoucherOrder voucherOrder){
+        // 无锁模式 由唯一索引保证幂等
+        if(lockFree){
+            proxy.createVoucherOrder(voucherOrder);
+            return;
+        }
         Long userId = voucherOrder.getUserId();
         RLock lock = redissonClient.getLock("order:" + userId);
         boolean triedLock = lock.tryLock();
         log.info("voucher order getLock:{}",triedLock);
         if(!triedLock){
-            log.info("VoucherOrderService:handleVoucherOrder: 用户只能下一单");
-            return;
+            // 同一用户的订单正由其他消费者处理 抛出异常使消息留在pending列表中 稍后重试或转入死信队列
+            // 直接返回会被当作已落库而确认 订单丢失
+            throw new IllegalStateException("用户订单正在处理中 userId:" + userId);
         }
         try{
             proxy.createVoucherOrder(voucherOrder);
@@ -188,19 +834,113 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 //            lock.unlock();
 //        }
         Long userId = UserHolder.getUser().getId();
-        Long orderId = redisIdWorker.nextId("order");
-        Long success = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(),
-                userId.toString(),
-                orderId.toString());
+        // 本节点已知售罄 直接返回 不访问Redis
+        if(soldOutMemo.isSoldOut(voucherId)){
+            return Result.fail("库存不足");
+        }
+        // 准入控制 超出令牌桶速率直接拒绝
+        String rejectedBy = seckillRateLimiter.tryAcquire(voucherId);
+        if(rejectedBy != null){
+            log.debug("seckillVoucher 准入拒绝 voucherId:{} layer:{}", voucherId, rejectedBy);
+            return Result.fail("抢购人数过多 请稍后再试");
+        }
+        // 订单日志尚未打开(启动重放中)时拒绝 避免扣减库存后无法写入日志
+        if(isJournalMode() && !orderJournal.isOpen()){
+            return Result.fail("系统繁忙 请稍后再试");
+        }
+        // 热点库存统计
+        hotKeyDetector.record(SECKILL_STOCK_KEY + voucherId);
+        // 按用户ID路由到分区
+        // 订单日志模式下脚本不写消息队列
+        String streamKey = isJournalMode() ? "" : streamKey((int) Math.floorMod(userId, (long) partitions));
+        // 分区积压超过上限 系统繁忙 拒绝新的下单
+        if(!isJournalMode() && maxBacklog > 0 && streamLagMonitor.backlog(streamKey) >= maxBacklog){
+            return Result.fail("系统繁忙 请稍后再试");
+        }
+        // 订单ID在脚本内生成 只在下单成功时自增序列号
+        // Lua数字为双精度 时间部分按十进制拆成高低两段传入 避免精度丢失
+        long timePart = redisIdWorker.timePart();
+        // 从用户的首选库存分段开始 分段库存为0时才换下一个分段
+        int segments = seckillStock.segments(voucherId);
+        int home = seckillStock.homeSegment(voucherId, userId);
+        String stockKey = null;
+        List<Object> result = null;
+        for (int i = 0; i < segments; i++) {
+            stockKey = seckillStock.key(voucherId, (home + i) % segments);
+            result = stringRedisTemplate.execute(
+                    SECKILL_SCRIPT,
+                    Collections.singletonList(stockKey),
+                    voucherId.toString(),
+                    userId.toString(),
+                    redisIdWorker.counterKey("order"),
+                    streamKey,
+                    String.valueOf(timePart / RedisIdWorker.ORDER_ID_RADIX),
+                    String.valueOf(timePart % RedisIdWorker.ORDER_ID_RADIX),
+                    seckillDedupe.mode(),
+                    String.valueOf(seckillDedupe.chunkBits()),
+                    seckillWaitingRoom.admitKey(voucherId, userId),
+                    String.valueOf(seckillOrderStatus.ttlSeconds()));
+            if((Long) result.get(0) != 1){
+                break;
+            }
+        }
+        long success = (Long) result.get(0);
         log.info("seckillVoucher success:{}", success);
-        if(success.intValue() != 0) {
+        if(success == 1){
+            soldOutMemo.markSoldOut(voucherId);
+        }
+        if(success == 3){
+            return Result.fail("请先排队 或准入凭证已过期");
+        }
+        if(success != 0) {
             return Result.fail(success == 1 ? "库存不足" : "用户已下过一单");
         }
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
-        return Result.ok();
+        String orderId = (String) result.get(1);
+        if(isJournalMode()){
+            VoucherOrder voucherOrder = new VoucherOrder();
+            voucherOrder.setId(Long.valueOf(orderId));
+            voucherOrder.setUserId(userId);
+            voucherOrder.setVoucherId(voucherId);
+            long sequence;
+            try{
+                sequence = orderJournal.append(voucherOrder, journalAppendTimeoutMillis);
+            }catch(Exception e){
+                log.error("seckillVoucher 写入订单日志失败:{}", voucherOrder, e);
+                sequence = -1;
+            }
+            // 写入失败或缓冲区已满(落库跟不上) 撤销后快速失败
+            if(sequence < 0){
+                rollbackSeckill(voucherOrder, stockKey);
+                return Result.fail("系统繁忙 请稍后再试");
+            }
+        }
+        // 返回订单ID 超过JS数字精度 以字符串返回
+        return Result.ok(orderId);
+    }
+
+    /**
+     * 撤销秒杀脚本的结果 归还库存 删除一人一单记录 订单状态记为失败
+     * @param voucherOrder
+     * @param stockKey 秒杀脚本扣减的库存分段key
+     */
+    private void rollbackSeckill(VoucherOrder voucherOrder, String stockKey){
+        try{
+            Long stock = stringRedisTemplate.execute(
+                    SECKILL_ROLLBACK_SCRIPT,
+                    Collections.singletonList(stockKey),
+                    voucherOrder.getVoucherId().toString(),
+                    voucherOrder.getUserId().toString(),
+                    voucherOrder.getId().toString(),
+                    seckillDedupe.mode(),
+                    String.valueOf(seckillDedupe.chunkBits()),
+                    String.valueOf(seckillOrderStatus.ttlSeconds()));
+            // 归还前已售罄 清除各节点的售罄标记
+            if(stock != null && stock == 1){
+                soldOutMemo.clear(voucherOrder.getVoucherId());
+            }
+        }catch(Exception e){
+            log.error("seckillVoucher 撤销秒杀失败 库存与一人一单记录需人工修正:{} stockKey:{}", voucherOrder, stockKey, e);
+        }
     }
 
     @Transactional
@@ -208,16 +948,74 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         log.info("createVoucherOrder:{}", voucherOrder);
         Long userId = voucherOrder.getUserId();
         Long voucherId = voucherOrder.getVoucherId();
+        if(lockFree){
+            createVoucherOrderIdempotent(voucherOrder);
+            return;
+        }
         boolean success = seckillVoucherService.update().
                 setSql("stock = stock - 1").
                 eq("voucher_id", voucherId).gt("stock",0).
                 update();
         if(!success){
             log.info("VoucherOrderService:seckillVoucher: 更新失败");
+            seckillOrderStatus.markFailed(Collections.singletonList(voucherOrder.getId()));
             return;
         }
         // 5. 生成订单信息
         save(voucherOrder);
+        seckillOrderStatus.markPersisted(Collections.singletonList(voucherOrder.getId()));
+    }
+
+    /**
+     * 批量落库 每张券只执行一次 stock = stock - k 订单一次多行插入
+     * @param voucherOrders
+     */
+    @Override
+    @Transactional
+    public void createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        log.info("createVoucherOrders:{}", voucherOrders.size());
+        // 按券ID升序扣减 避免并发事务间死锁
+        Map<Long, Long> counts = voucherOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, TreeMap::new, Collectors.counting()));
+        counts.forEach((voucherId, count) -> {
+            boolean success = seckillVoucherService.update().
+                    setSql("stock = stock - " + count).
+                    eq("voucher_id", voucherId).ge("stock", count).
+                    update();
+            if(!success){
+                throw new IllegalStateException("批量扣减库存失败 voucherId:" + voucherId);
+            }
+        });
+        // 存在重复订单时抛出DuplicateKeyException 整批回滚 由调用方逐条处理
+        getBaseMapper().insertBatch(voucherOrders);
+        seckillOrderStatus.markPersisted(voucherOrders.stream().map(VoucherOrder::getId).collect(Collectors.toList()));
+    }
+
+    /**
+     * 幂等落库 先插入订单 主键或(user_id, voucher_id)唯一索引冲突说明是重复投递 直接返回
+     * 只捕获唯一键冲突 外键 数据截断等其他错误照常抛出
+     * 插入成功后再扣减库存 库存不足时回滚订单
+     * @param voucherOrder
+     */
+    private void createVoucherOrderIdempotent(VoucherOrder voucherOrder) {
+        try{
+            save(voucherOrder);
+        }catch(DuplicateKeyException e){
+            log.info("VoucherOrderService:createVoucherOrder: 重复订单 忽略:{}", voucherOrder.getId());
+            seckillOrderStatus.markPersisted(Collections.singletonList(voucherOrder.getId()));
+            return;
+        }
+        boolean success = seckillVoucherService.update().
+                setSql("stock = stock - 1").
+                eq("voucher_id", voucherOrder.getVoucherId()).gt("stock",0).
+                update();
+        if(!success){
+            log.info("VoucherOrderService:createVoucherOrder: 扣减库存失败 回滚订单:{}", voucherOrder.getId());
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            seckillOrderStatus.markFailed(Collections.singletonList(voucherOrder.getId()));
+            return;
+        }
+        seckillOrderStatus.markPersisted(Collections.singletonList(voucherOrder.getId()));
     }
 
 
@@ -7,8 +7,11 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillStock;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
 import java.util.List;
@@ -26,6 +29,8 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
 
     @Resource
     private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private SeckillStock seckillStock;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -47,5 +52,45 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
+        // 事务提交后保存秒杀库存到Redis 分段模式下拆分到各分段
+        afterCommit(() -> seckillStock.set(voucher.getId(), voucher.getStock()));
+    }
+
+    @Override
+    @Transactional
+    public void addSeckillStock(Long voucherId, Integer amount) {
+        // 更新数据库库存
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock + " + amount)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success) {
+            throw new RuntimeException("秒杀券不存在");
+        }
+        // 事务提交后补充Redis库存 并清除售罄标记
+        afterCommit(() -> seckillStock.add(voucherId, amount));
+    }
+
+    /**
+     * 事务提交后执行 回滚时不执行 避免Redis中出现数据库不存在的库存
+     * @param action
+     */
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    @Override
+    public Result querySeckillStock(Long voucherId) {
+        // 汇总各分段剩余库存
+        return Result.ok(seckillStock.total(voucherId));
     }
 }
@@ -0,0 +1,88 @@
+package com.hmdp.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 布隆过滤器公共部分: 位数组大小/哈希函数个数的计算 以及双重哈希定位
+ */
+public abstract class AbstractBloomFilter implements IBloomFilter {
+
+    protected final long bitSize;
+    protected final int hashCount;
+    private final double fpp;
+    private final AtomicLong insertions = new AtomicLong();
+
+    protected AbstractBloomFilter(long expectedInsertions, double fpp) {
+        long n = Math.max(1L, expectedInsertions);
+        // m = -n*ln(p)/(ln2)^2  k = m/n*ln2
+        long m = (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.bitSize = Math.max(64L, Math.min(m, maxBitSize()));
+        this.hashCount = Math.max(1, (int) Math.round((double) bitSize / n * Math.log(2)));
+        this.fpp = fpp;
+    }
+
+    /**
+     * 位数组允许的最大位数
+     */
+    protected abstract long maxBitSize();
+
+    protected abstract void setBits(long[] offsets);
+
+    protected abstract boolean allBitsSet(long[] offsets);
+
+    @Override
+    public void put(String value) {
+        setBits(offsets(value));
+        insertions.incrementAndGet();
+    }
+
+    @Override
+    public boolean mightContain(String value) {
+        return allBitsSet(offsets(value));
+    }
+
+    @Override
+    public long insertions() {
+        return insertions.get();
+    }
+
+    @Override
+    public double expectedFpp() {
+        return fpp;
+    }
+
+    @Override
+    public double estimatedFpp() {
+        // (1 - e^(-k*n/m))^k
+        return Math.pow(1 - Math.exp(-(double) hashCount * insertions.get() / bitSize), hashCount);
+    }
+
+    /**
+     * 计算元素对应的k个位偏移
+     */
+    private long[] offsets(String value) {
+        // FNV-1a 64位哈希 再通过混淆得到两个独立哈希值
+        long h = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+        long h1 = mix(h);
+        long h2 = mix(h1 ^ 0x9e3779b97f4a7c15L);
+        long[] offsets = new long[hashCount];
+        for (int i = 0; i < hashCount; i++) {
+            offsets[i] = ((h1 + i * h2) & Long.MAX_VALUE) % bitSize;
+        }
+        return offsets;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -1,17 +1,37 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import com.hmdp.entity.Shop;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
 import static com.hmdp.utils.RedisConstants.*;
@@ -22,12 +42,194 @@ import static com.hmdp.utils.RedisConstants.*;
 public class CacheClient {
 
    private final StringRedisTemplate stringRedisTemplate;
+   // 缓存值以二进制读写 编解码由CacheSerializer完成
+   private final RedisTemplate<String, byte[]> cacheRedisTemplate;
+   private final CacheSerializer cacheSerializer;
+   private final RedisMessageListenerContainer listenerContainer;
+   private final MeterRegistry meterRegistry;
+   private final CacheMetrics cacheMetrics;
+   private final HotKeyDetector hotKeyDetector;
+   private final ExecutorRegistry executorRegistry;
 
-   public CacheClient(StringRedisTemplate stringRedisTemplate){
+   public CacheClient(StringRedisTemplate stringRedisTemplate, RedisTemplate<String, byte[]> cacheRedisTemplate,
+                      CacheSerializer cacheSerializer, RedisMessageListenerContainer listenerContainer,
+                      MeterRegistry meterRegistry, CacheMetrics cacheMetrics, HotKeyDetector hotKeyDetector,
+                      ExecutorRegistry executorRegistry){
       this.stringRedisTemplate = stringRedisTemplate;
+      this.cacheRedisTemplate = cacheRedisTemplate;
+      this.cacheSerializer = cacheSerializer;
+      this.listenerContainer = listenerContainer;
+      this.meterRegistry = meterRegistry;
+      this.cacheMetrics = cacheMetrics;
+      this.hotKeyDetector = hotKeyDetector;
+      this.executorRegistry = executorRegistry;
    }
 
-   private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+   private static final String CACHE_REBUILD_EXECUTOR = "cache-rebuild";
+   // 缓存重建线程池 由ExecutorRegistry管理
+   private ThreadPoolExecutor cacheRebuildExecutor;
+
+   // Redis与本地缓存中表示空值的缓存
+   private static final byte[] EMPTY = new byte[0];
+
+   @Value("${hmdp.cache.local.enabled:true}")
+   private boolean localEnabled;
+   @Value("${hmdp.cache.local.max-size:1000}")
+   private int localMaxSize;
+
+   // 本地缓存与旧值缓存保存序列化后的字节 每次读取解码出新对象 调用方之间不共享可变实例
+   private LocalCache localCache;
+   // key前缀 -> 本地缓存存活时间(毫秒) 未注册的前缀不走本地缓存
+   private final Map<String, Long> localTtls = new ConcurrentHashMap<>();
+   // 未注册前缀的热点key 在本地缓存中的存活时间(毫秒)
+   @Value("${hmdp.hotkey.local-ttl-millis:1000}")
+   private long hotKeyLocalTtlMillis;
+
+   // 布隆过滤器模式 none:关闭 local:进程内 redis:Redis位图(多节点共享)
+   // local模式下新增ID通过广播同步 错过广播的节点会误拦截新数据 多节点部署使用redis模式
+   @Value("${hmdp.cache.bloom.mode:redis}")
+   private String bloomMode;
+   @Value("${hmdp.cache.bloom.expected-insertions:100000}")
+   private long bloomExpectedInsertions;
+   @Value("${hmdp.cache.bloom.fpp:0.01}")
+   private double bloomFpp;
+
+   // key前缀 -> 合法ID的布隆过滤器
+   private final Map<String, IBloomFilter> bloomFilters = new ConcurrentHashMap<>();
+   // key前缀 -> 被布隆过滤器拦截的请求数
+   private final Map<String, AtomicLong> bloomRejected = new ConcurrentHashMap<>();
+
+   // 同一JVM内缓存未命中的请求合并 key -> 正在进行的重建
+   private final Map<String, CompletableFuture<byte[]>> inFlightLoads = new ConcurrentHashMap<>();
+   // 等待其他线程重建的最长时间
+   @Value("${hmdp.cache.single-flight.wait-millis:500}")
+   private long singleFlightWaitMillis;
+   // 分布式锁被其他节点持有时 重查缓存的最大次数
+   @Value("${hmdp.cache.single-flight.lock-retries:10}")
+   private int singleFlightLockRetries;
+   @Value("${hmdp.cache.single-flight.stale-ttl-seconds:300}")
+   private long staleTtlSeconds;
+   // 最近一次成功读取的值 等待超时或重建失败时作为旧值返回
+   private LocalCache staleCache;
+
+   // 逻辑过期提前刷新
+   @Value("${hmdp.cache.refresh-ahead.enabled:true}")
+   private boolean refreshAheadEnabled;
+   @Value("${hmdp.cache.refresh-ahead.beta:1.0}")
+   private double refreshAheadBeta;
+   // 逻辑过期时间随机抖动比例 0.1表示在TTL基础上随机增加0~10%
+   @Value("${hmdp.cache.ttl-jitter:0.1}")
+   private double ttlJitter;
+
+   @PostConstruct
+   private void init(){
+      localCache = new LocalCache(localMaxSize);
+      staleCache = new LocalCache(localMaxSize);
+      // 有界队列 队列满时拒绝提交 由调用方释放锁并返回旧值
+      cacheRebuildExecutor = executorRegistry.register(CACHE_REBUILD_EXECUTOR, 10, 10, 1000,
+              new ThreadPoolExecutor.AbortPolicy());
+      // 订阅缓存失效广播 删除本节点的本地缓存
+      listenerContainer.addMessageListener((message, pattern) -> {
+         String key = new String(message.getBody(), StandardCharsets.UTF_8);
+         localCache.invalidate(key);
+         log.debug("CacheClient 收到缓存失效广播:{}", key);
+      }, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+      // 订阅布隆过滤器新增广播 local模式下各节点各自维护过滤器 新增的ID需要同步到所有节点
+      listenerContainer.addMessageListener((message, pattern) -> {
+         String key = new String(message.getBody(), StandardCharsets.UTF_8);
+         String keyPrefix = null;
+         for (String prefix : bloomFilters.keySet()) {
+            if(key.startsWith(prefix) && (keyPrefix == null || prefix.length() > keyPrefix.length())){
+               keyPrefix = prefix;
+            }
+         }
+         if(keyPrefix == null){
+            return;
+         }
+         IBloomFilter filter = bloomFilters.get(keyPrefix);
+         String id = key.substring(keyPrefix.length());
+         // 发起节点已在本地加入 避免重复计数
+         if(!filter.mightContain(id)){
+            filter.put(id);
+         }
+         log.debug("CacheClient 收到布隆过滤器新增广播:{}", key);
+      }, new ChannelTopic(CACHE_BLOOM_CHANNEL));
+   }
+
+   /**
+    * 为某个key前缀开启本地缓存
+    * @param keyPrefix
+    * @param time 本地缓存存活时间
+    * @param timeUnit
+    */
+   public void enableLocalCache(String keyPrefix, Long time, TimeUnit timeUnit){
+      localTtls.put(keyPrefix, timeUnit.toMillis(time));
+   }
+
+   /**
+    * 为某个key前缀开启布隆过滤器 并用已有的合法ID初始化
+    * @param keyPrefix
+    * @param ids 当前所有合法ID
+    */
+   public void enableBloomFilter(String keyPrefix, Collection<?> ids){
+      IBloomFilter filter;
+      if("local".equalsIgnoreCase(bloomMode)){
+         filter = new LocalBloomFilter(Math.max(bloomExpectedInsertions, ids.size()), bloomFpp);
+      }else if("redis".equalsIgnoreCase(bloomMode)){
+         // 共享位图的大小只由配置决定 各节点算出相同的位偏移 不能随本节点启动时的数据量变化
+         if(ids.size() > bloomExpectedInsertions){
+            log.warn("CacheClient 布隆过滤器元素数:{} 超过预计数量:{} 误判率将升高 请调大expected-insertions",
+                    ids.size(), bloomExpectedInsertions);
+         }
+         filter = new RedisBloomFilter(BLOOM_FILTER_KEY + keyPrefix, bloomExpectedInsertions, bloomFpp,
+                 stringRedisTemplate);
+      }else{
+         log.info("CacheClient 布隆过滤器未开启:{}", keyPrefix);
+         return;
+      }
+      for (Object id : ids) {
+         filter.put(String.valueOf(id));
+      }
+      AtomicLong rejected = new AtomicLong();
+      bloomFilters.put(keyPrefix, filter);
+      bloomRejected.put(keyPrefix, rejected);
+      // 指标: 拦截次数 已加入元素数 配置/估算误判率
+      FunctionCounter.builder("cache.bloom.rejected", rejected, AtomicLong::get)
+              .tag("prefix", keyPrefix).register(meterRegistry);
+      Gauge.builder("cache.bloom.insertions", filter, IBloomFilter::insertions)
+              .tag("prefix", keyPrefix).register(meterRegistry);
+      Gauge.builder("cache.bloom.fpp.expected", filter, IBloomFilter::expectedFpp)
+              .tag("prefix", keyPrefix).register(meterRegistry);
+      Gauge.builder("cache.bloom.fpp.estimated", filter, IBloomFilter::estimatedFpp)
+              .tag("prefix", keyPrefix).register(meterRegistry);
+      log.info("CacheClient 布隆过滤器初始化完成:{} 模式:{} 数量:{}", keyPrefix, bloomMode, ids.size());
+   }
+
+   /**
+    * 新增合法ID至布隆过滤器 local模式下同时广播通知其他节点加入
+    * @param keyPrefix
+    * @param id
+    */
+   public void addToBloomFilter(String keyPrefix, Object id){
+      IBloomFilter filter = bloomFilters.get(keyPrefix);
+      if(filter == null){
+         return;
+      }
+      filter.put(String.valueOf(id));
+      if(filter instanceof LocalBloomFilter){
+         stringRedisTemplate.convertAndSend(CACHE_BLOOM_CHANNEL, keyPrefix + id);
+      }
+   }
+
+   /**
+    * 删除缓存 同时广播通知所有节点删除本地缓存
+    * @param key
+    */
+   public void delete(String key){
+      stringRedisTemplate.delete(key);
+      localCache.invalidate(key);
+      stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+   }
 
    /**
     * 设置Redis key-value + 过期时间
@@ -37,7 +239,96 @@ public class CacheClient {
     * @param timeUnit
     */
    public void set(String key, Object value, Long time, TimeUnit timeUnit){
-      stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value),time,timeUnit);
+      cacheRedisTemplate.opsForValue().set(key, cacheSerializer.serialize(value),time,timeUnit);
+   }
+
+   /**
+    * 设置Redis key-value 不过期
+    * @param key
+    * @param value
+    */
+   public void set(String key, Object value){
+      cacheRedisTemplate.opsForValue().set(key, cacheSerializer.serialize(value));
+   }
+
+   /**
+    * 获取缓存 不存在返回null
+    * @param key
+    * @param type
+    * @return
+    * @param <R>
+    */
+   public <R> R get(String key, Class<R> type){
+      byte[] bytes = fetch(key, key);
+      if(!isNotEmpty(bytes)){
+         cacheMetrics.count(key, bytes == null ? CacheMetrics.MISS : CacheMetrics.NULL_HIT);
+         return null;
+      }
+      cacheMetrics.count(key, CacheMetrics.HIT);
+      return decode(key, bytes, type);
+   }
+
+   /**
+    * 获取列表缓存 不存在返回null
+    * @param key
+    * @param type 元素类型
+    * @return
+    * @param <R>
+    */
+   public <R> List<R> getList(String key, Class<R> type){
+      byte[] bytes = fetch(key, key);
+      if(!isNotEmpty(bytes)){
+         cacheMetrics.count(key, bytes == null ? CacheMetrics.MISS : CacheMetrics.NULL_HIT);
+         return null;
+      }
+      cacheMetrics.count(key, CacheMetrics.HIT);
+      long begin = System.nanoTime();
+      try{
+         return cacheSerializer.deserializeList(bytes, type);
+      }finally{
+         cacheMetrics.record(key, CacheMetrics.STAGE_DECODE, System.nanoTime() - begin);
+      }
+   }
+
+   private static boolean isNotEmpty(byte[] bytes){
+      return bytes != null && bytes.length > 0;
+   }
+
+   /**
+    * 查询Redis 记录耗时
+    */
+   private byte[] fetch(String keyPrefix, String key){
+      long begin = System.nanoTime();
+      try{
+         return cacheRedisTemplate.opsForValue().get(key);
+      }finally{
+         cacheMetrics.record(keyPrefix, CacheMetrics.STAGE_REDIS, System.nanoTime() - begin);
+      }
+   }
+
+   /**
+    * 反序列化 记录耗时
+    */
+   private <R> R decode(String keyPrefix, byte[] bytes, Class<R> type){
+      long begin = System.nanoTime();
+      try{
+         return cacheSerializer.deserialize(bytes, type);
+      }finally{
+         cacheMetrics.record(keyPrefix, CacheMetrics.STAGE_DECODE, System.nanoTime() - begin);
+      }
+   }
+
+   /**
+    * 查询数据库 记录耗时与重建次数
+    */
+   private <R,ID> R loadFromDb(String keyPrefix, ID id, Function<ID,R> dbFallBack){
+      long begin = System.nanoTime();
+      try{
+         return dbFallBack.apply(id);
+      }finally{
+         cacheMetrics.count(keyPrefix, CacheMetrics.REBUILD);
+         cacheMetrics.record(keyPrefix, CacheMetrics.STAGE_DB, System.nanoTime() - begin);
+      }
    }
 
    /**
@@ -48,8 +339,20 @@ public class CacheClient {
     * @param timeUnit
     */
    public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit timeUnit){
-      RedisData redisData = new RedisData(LocalDateTime.now().plusSeconds(timeUnit.toSeconds(time)),value);
-      stringRedisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(redisData));
+      setWithLogicalExpire(key, value, time, timeUnit, null);
+   }
+
+   /**
+    * 设置Redis 逻辑过期 并记录本次重建耗时 过期时间加入随机抖动避免同时过期
+    * @param rebuildMillis 重建耗时(毫秒) 用于提前刷新
+    */
+   private void setWithLogicalExpire(String key, Object value, Long time, TimeUnit timeUnit, Long rebuildMillis){
+      long millis = timeUnit.toMillis(time);
+      if(ttlJitter > 0){
+         millis += (long) (millis * ttlJitter * ThreadLocalRandom.current().nextDouble());
+      }
+      RedisData redisData = new RedisData(LocalDateTime.now().plus(millis, ChronoUnit.MILLIS), value, rebuildMillis);
+      cacheRedisTemplate.opsForValue().set(key,cacheSerializer.serializeLogical(redisData));
    }
 
    /**
@@ -68,89 +371,416 @@ public class CacheClient {
                                         Long time,TimeUnit timeUnit,Function<ID,R> dbFallBack)
    {
       String key = keyPrefix+id;
-      String json = stringRedisTemplate.opsForValue().get(key);
+      // 布隆过滤器判断ID一定不存在 直接返回
+      IBloomFilter filter = bloomFilters.get(keyPrefix);
+      if(filter != null && !filter.mightContain(String.valueOf(id))){
+         bloomRejected.get(keyPrefix).incrementAndGet();
+         log.info("CacheClient:queryWithPassThrough 布隆过滤器拦截:{}",id);
+         return null;
+      }
+      // 本地缓存击中 返回 热点key即使前缀未开启本地缓存也短暂缓存在本地
+      Long localTtl = localTtl(keyPrefix, hotKeyDetector.record(key));
+      if(localTtl != null){
+         byte[] local = (byte[]) localCache.get(key);
+         if(local != null){
+            cacheMetrics.count(keyPrefix, CacheMetrics.LOCAL_HIT);
+            return isNotEmpty(local) ? decode(keyPrefix, local, type) : null;
+         }
+      }
+      byte[] bytes = fetch(keyPrefix, key);
 
       // 缓存击中 返回
-      if(StrUtil.isNotBlank(json)){
+      if(isNotEmpty(bytes)){
          log.info("CacheClient:queryWithPassThrough 缓存击中:{}",id);
-         return JSONUtil.toBean(json, type);
+         cacheMetrics.count(keyPrefix, CacheMetrics.HIT);
+         R r = decode(keyPrefix, bytes, type);
+         putLocal(localTtl, key, r);
+         return r;
       }
       // 击中空缓存
-      if(json!=null){
+      if(bytes!=null){
          log.info("CacheClient:queryWithPassThrough 击中空缓存:{}",id);
+         cacheMetrics.count(keyPrefix, CacheMetrics.NULL_HIT);
+         putLocal(localTtl, key, null);
          return null;
       }
-      // 缓存不存在
-      R r= dbFallBack.apply(id);
-      // 店铺不存在
-      if(r == null){
-         json = "";
-      }else{
-         json = JSONUtil.toJsonStr(r);
+      // 缓存不存在 合并并发未命中 只有一个线程查询数据库并写回缓存(不存在时写入空值)
+      cacheMetrics.count(keyPrefix, CacheMetrics.MISS);
+      R r = loadSingleFlight(keyPrefix, key, id, type, time, timeUnit, dbFallBack);
+      putLocal(localTtl, key, r);
+      return r;
+   }
+
+   /**
+    * 本地缓存存活时间 前缀开启了本地缓存用前缀配置 否则热点key使用热点TTL
+    * @param keyPrefix
+    * @param hot 是否为热点key
+    * @return 为null时不走本地缓存
+    */
+   private Long localTtl(String keyPrefix, boolean hot){
+      if(!localEnabled){
+         return null;
       }
+      Long localTtl = localTtls.get(keyPrefix);
+      if(localTtl == null && hot){
+         return hotKeyLocalTtlMillis;
+      }
+      return localTtl;
+   }
 
-      stringRedisTemplate.opsForValue().set(key, json, time, timeUnit);
-      return r;
+   private Long localTtl(String keyPrefix, String key){
+      return localTtl(keyPrefix, hotKeyDetector.isHot(key));
+   }
+
+   /**
+    * 写入本地缓存 存活时间不超过该前缀配置的时间
+    * @param localTtl 为null时表示未开启本地缓存
+    * @param key
+    * @param value
+    */
+   private void putLocal(Long localTtl, String key, Object value){
+      if(localTtl == null){
+         return;
+      }
+      localCache.put(key, value == null ? EMPTY : cacheSerializer.serialize(value), localTtl);
+   }
+
+   /**
+    * 记录最近一次成功读取的值 等待重建超时或失败时返回
+    * @param key
+    * @param value
+    */
+   private void putStale(String key, Object value){
+      staleCache.put(key, cacheSerializer.serialize(value), TimeUnit.SECONDS.toMillis(staleTtlSeconds));
+   }
+
+   /**
+    * 缓存击穿 互斥锁 + 同一JVM内请求合并
+    * 并发未命中的线程共享同一个重建结果 只有领头线程获取分布式锁并查询数据库
+    * @param keyPrefix
+    * @param id
+    * @param type
+    * @param time
+    * @param timeUnit
+    * @param dbFallBack
+    * @return
+    * @param <R>
+    * @param <ID>
+    */
+   public <R,ID> R queryWithMutex(String keyPrefix, ID id, Class<R> type,
+                                  Long time, TimeUnit timeUnit, Function<ID,R> dbFallBack){
+      String key = keyPrefix + id;
+      // 1. 查询缓存
+      byte[] bytes = fetch(keyPrefix, key);
+      if(isNotEmpty(bytes)){
+         log.info("CacheClient:queryWithMutex 缓存击中:{}",id);
+         cacheMetrics.count(keyPrefix, CacheMetrics.HIT);
+         R r = decode(keyPrefix, bytes, type);
+         putStale(key, r);
+         return r;
+      }
+      if(bytes != null){
+         cacheMetrics.count(keyPrefix, CacheMetrics.NULL_HIT);
+         return null;
+      }
+      cacheMetrics.count(keyPrefix, CacheMetrics.MISS);
+      return loadSingleFlight(keyPrefix, key, id, type, time, timeUnit, dbFallBack);
+   }
+
+   /**
+    * 缓存未命中时重建 同一JVM内合并 跨节点由分布式锁互斥
+    */
+   private <R,ID> R loadSingleFlight(String keyPrefix, String key, ID id, Class<R> type,
+                                     Long time, TimeUnit timeUnit, Function<ID,R> dbFallBack){
+      // 2. 已有线程在重建则等待其结果
+      CompletableFuture<byte[]> future = new CompletableFuture<>();
+      CompletableFuture<byte[]> inFlight = inFlightLoads.putIfAbsent(key, future);
+      if(inFlight != null){
+         return awaitLoad(keyPrefix, key, id, inFlight, type, dbFallBack);
+      }
+      // 3. 当前线程为领头线程 负责重建
+      try{
+         R r = loadWithLock(keyPrefix, key, id, type, time, timeUnit, dbFallBack);
+         // 等待线程各自解码 不与领头线程共享同一实例
+         future.complete(r == null ? EMPTY : cacheSerializer.serialize(r));
+         return r;
+      }catch(RuntimeException e){
+         future.completeExceptionally(e);
+         throw e;
+      }finally{
+         inFlightLoads.remove(key, future);
+      }
+   }
+
+   /**
+    * 获取分布式锁后重建缓存 锁被其他节点持有时等待其重建完成
+    */
+   private <R,ID> R loadWithLock(String keyPrefix, String key, ID id, Class<R> type,
+                                 Long time, TimeUnit timeUnit, Function<ID,R> dbFallBack){
+      String lockKey = lockKey(key);
+      for(int i = 0; ; i++){
+         if(tryLock(lockKey)){
+            try{
+               // 双重检查
+               byte[] bytes = fetch(keyPrefix, key);
+               if(isNotEmpty(bytes)){
+                  log.info("CacheClient:queryWithMutex 双重检查缓存击中:{}",id);
+                  return decode(keyPrefix, bytes, type);
+               }
+               if(bytes != null){
+                  return null;
+               }
+               R r = loadFromDb(keyPrefix, id, dbFallBack);
+               cacheRedisTemplate.opsForValue().set(key, r == null ? EMPTY : cacheSerializer.serialize(r), time, timeUnit);
+               if(r != null){
+                  putStale(key, r);
+               }
+               return r;
+            }finally{
+               unlock(lockKey);
+            }
+         }
+         // 其他节点正在重建 超过重试次数直接查询数据库
+         cacheMetrics.count(keyPrefix, CacheMetrics.LOCK_CONTENTION);
+         if(i >= singleFlightLockRetries){
+            log.info("CacheClient:queryWithMutex 等待其他节点重建超时 查询数据库:{}",id);
+            return loadFromDb(keyPrefix, id, dbFallBack);
+         }
+         try{
+            Thread.sleep(50);
+         }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+         }
+         byte[] bytes = fetch(keyPrefix, key);
+         if(isNotEmpty(bytes)){
+            return decode(keyPrefix, bytes, type);
+         }
+         if(bytes != null){
+            return null;
+         }
+      }
+   }
+
+   /**
+    * 等待领头线程的重建结果 超时或失败时返回旧值 没有旧值时直接查询数据库
+    * 不能返回null 否则调用方会把存在的数据当作不存在
+    */
+   private <R,ID> R awaitLoad(String keyPrefix, String key, ID id, CompletableFuture<byte[]> inFlight, Class<R> type,
+                              Function<ID,R> dbFallBack){
+      try{
+         byte[] loaded = inFlight.get(singleFlightWaitMillis, TimeUnit.MILLISECONDS);
+         return isNotEmpty(loaded) ? decode(keyPrefix, loaded, type) : null;
+      }catch(InterruptedException e){
+         Thread.currentThread().interrupt();
+      }catch(ExecutionException | TimeoutException e){
+         log.info("CacheClient:queryWithMutex 等待重建失败 返回旧值:{}", key);
+      }
+      byte[] stale = (byte[]) staleCache.get(key);
+      if(stale != null){
+         return decode(keyPrefix, stale, type);
+      }
+      log.info("CacheClient:queryWithMutex 等待重建失败且无旧值 查询数据库:{}", key);
+      return loadFromDb(keyPrefix, id, dbFallBack);
+   }
+
+   /**
+    * 批量查询 缓存穿透
+    * 一次MGET查询缓存 未命中的ID一次查询数据库 再通过管道写回(不存在的写入空值)
+    * @param keyPrefix
+    * @param ids
+    * @param type
+    * @param time
+    * @param timeUnit
+    * @param dbFallBack 根据未命中的ID批量查询数据库 返回 ID -> 对象
+    * @return ID -> 对象 不存在的ID不包含在内
+    * @param <R>
+    * @param <ID>
+    */
+   public <R,ID> Map<ID,R> queryBatchWithPassThrough(String keyPrefix, Collection<ID> ids, Class<R> type,
+                                                     Long time, TimeUnit timeUnit,
+                                                     Function<Collection<ID>, Map<ID,R>> dbFallBack){
+      Map<ID,R> result = new LinkedHashMap<>();
+      if(ids == null || ids.isEmpty()){
+         return result;
+      }
+      // 1. 布隆过滤器和本地缓存
+      IBloomFilter filter = bloomFilters.get(keyPrefix);
+      List<ID> remoteIds = new ArrayList<>();
+      for (ID id : new LinkedHashSet<>(ids)) {
+         if(filter != null && !filter.mightContain(String.valueOf(id))){
+            bloomRejected.get(keyPrefix).incrementAndGet();
+            continue;
+         }
+         Long localTtl = localTtl(keyPrefix, hotKeyDetector.record(keyPrefix + id));
+         if(localTtl != null){
+            byte[] local = (byte[]) localCache.get(keyPrefix + id);
+            if(local != null){
+               cacheMetrics.count(keyPrefix, CacheMetrics.LOCAL_HIT);
+               if(isNotEmpty(local)){
+                  result.put(id, decode(keyPrefix, local, type));
+               }
+               continue;
+            }
+         }
+         remoteIds.add(id);
+      }
+      if(remoteIds.isEmpty()){
+         return result;
+      }
+      // 2. 一次MGET查询Redis
+      List<String> keys = new ArrayList<>(remoteIds.size());
+      for (ID id : remoteIds) {
+         keys.add(keyPrefix + id);
+      }
+      long begin = System.nanoTime();
+      List<byte[]> values = cacheRedisTemplate.opsForValue().multiGet(keys);
+      cacheMetrics.record(keyPrefix, CacheMetrics.STAGE_REDIS, System.nanoTime() - begin);
+      List<ID> missIds = new ArrayList<>();
+      for (int i = 0; i < remoteIds.size(); i++) {
+         ID id = remoteIds.get(i);
+         byte[] bytes = values == null ? null : values.get(i);
+         if(isNotEmpty(bytes)){
+            cacheMetrics.count(keyPrefix, CacheMetrics.HIT);
+            R r = decode(keyPrefix, bytes, type);
+            result.put(id, r);
+            putLocal(localTtl(keyPrefix, keys.get(i)), keys.get(i), r);
+         }else if(bytes != null){
+            // 击中空缓存
+            cacheMetrics.count(keyPrefix, CacheMetrics.NULL_HIT);
+            putLocal(localTtl(keyPrefix, keys.get(i)), keys.get(i), null);
+         }else{
+            missIds.add(id);
+         }
+      }
+      cacheMetrics.count(keyPrefix, CacheMetrics.MISS, missIds.size());
+      log.info("CacheClient:queryBatchWithPassThrough 查询:{} 缓存未命中:{}", ids.size(), missIds.size());
+      if(missIds.isEmpty()){
+         return result;
+      }
+      // 3. 一次查询数据库
+      begin = System.nanoTime();
+      Map<ID,R> dbResult = dbFallBack.apply(missIds);
+      cacheMetrics.count(keyPrefix, CacheMetrics.REBUILD);
+      cacheMetrics.record(keyPrefix, CacheMetrics.STAGE_DB, System.nanoTime() - begin);
+      Map<ID,R> loaded = dbResult == null ? Collections.<ID,R>emptyMap() : dbResult;
+      // 4. 管道写回Redis 不存在的ID写入空值
+      long seconds = timeUnit.toSeconds(time);
+      cacheRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+         for (ID id : missIds) {
+            R r = loaded.get(id);
+            connection.setEx((keyPrefix + id).getBytes(StandardCharsets.UTF_8), seconds,
+                    r == null ? EMPTY : cacheSerializer.serialize(r));
+         }
+         return null;
+      });
+      for (ID id : missIds) {
+         R r = loaded.get(id);
+         putLocal(localTtl(keyPrefix, keyPrefix + id), keyPrefix + id, r);
+         if(r != null){
+            result.put(id, r);
+         }
+      }
+      return result;
    }
 
    public <R,ID> R queryWithLogicalExpire(String keyPrefix,ID id, Class<R> type,
                                           Long time,TimeUnit timeUnit,Function<ID,R> dbFallBack){
       // 1. 获取Redis数据
       String key = keyPrefix + id;
-      String json = stringRedisTemplate.opsForValue().get(key);
-      if(StrUtil.isBlank(json)){
+      byte[] bytes = fetch(keyPrefix, key);
+      if(!isNotEmpty(bytes)){
          // 未命中
          log.info("CaCheClient:queryWithLogicalExpire 未命中:{}",id);
+         cacheMetrics.count(keyPrefix, CacheMetrics.MISS);
          return null;
       }
+      cacheMetrics.count(keyPrefix, CacheMetrics.HIT);
       // 2. 获取对象
-      RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-      R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+      long begin = System.nanoTime();
+      RedisData redisData = cacheSerializer.deserializeLogical(bytes, type);
+      cacheMetrics.record(keyPrefix, CacheMetrics.STAGE_DECODE, System.nanoTime() - begin);
+      R r = type.cast(redisData.getData());
       LocalDateTime expireTime = redisData.getExpireTime();
       log.info("CacheClient:queryWithLogicalExpire 获取缓存信息:{}",r);
-      // 3. 未超时
-      if(expireTime.isAfter(LocalDateTime.now())){
+      // 3. 未超时 且未命中提前刷新
+      if(expireTime.isAfter(LocalDateTime.now()) && !shouldRefreshAhead(redisData)){
          log.info("CacheClient:queryWithLogicalExpire 未超时 返回:{}",id);
          return r;
       }
-      // 4. 超时 尝试获取互斥锁
-      boolean lock = tryLock(LOCK_SHOP_KEY+id);
+      // 4. 超时或提前刷新 尝试获取互斥锁
+      boolean lock = tryLock(lockKey(key));
       log.info("queryWithLogicalExpire 获取锁:{}",lock);
+      if(!lock){
+         cacheMetrics.count(keyPrefix, CacheMetrics.LOCK_CONTENTION);
+      }
       if(lock){
-         // 5.获取成功 双重检查
-         json = stringRedisTemplate.opsForValue().get(key);
-         redisData = JSONUtil.toBean(json, RedisData.class);
-         r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-         log.info("queryWithLogicalExpire 双重检查");
-         expireTime = redisData.getExpireTime();
-         if(expireTime.isAfter(LocalDateTime.now())){
-            log.info("queryWithLogicalExpire 双重检查未超时 返回:{}",id);
+         // 5.获取成功 双重检查 过期时间已被推后说明其他线程已重建
+         bytes = cacheRedisTemplate.opsForValue().get(key);
+         if(!isNotEmpty(bytes)){
+            unlock(lockKey(key));
             return r;
          }
+         redisData = cacheSerializer.deserializeLogical(bytes, type);
+         log.info("queryWithLogicalExpire 双重检查");
+         if(redisData.getExpireTime().isAfter(expireTime)){
+            log.info("queryWithLogicalExpire 双重检查已重建 返回:{}",id);
+            unlock(lockKey(key));
+            return type.cast(redisData.getData());
+         }
          // 5.2 双重检查未通过 开启新线程重写缓存
-         CACHE_REBUILD_EXECUTOR.submit(()->{
+         // 同一key的重建任务在本节点内去重
+         boolean submitted = executorRegistry.submitUnique(cacheRebuildExecutor, CACHE_REBUILD_EXECUTOR, key, ()->{
             try{
-               // 重建缓存
-               R r1= dbFallBack.apply(id);
-               setWithLogicalExpire(key,r1,time,timeUnit);
+               // 重建缓存 记录耗时
+               long rebuildBegin = System.currentTimeMillis();
+               R r1= loadFromDb(keyPrefix, id, dbFallBack);
+               setWithLogicalExpire(key,r1,time,timeUnit,System.currentTimeMillis() - rebuildBegin);
             } catch (Exception e) {
-               throw new RuntimeException(e);
+               log.error("CacheClient:queryWithLogicalExpire 重建缓存失败:{}", key, e);
             }finally {
                // 释放锁
-               unlock(LOCK_SHOP_KEY+id);
+               unlock(lockKey(key));
             }
          });
+         if(!submitted){
+            unlock(lockKey(key));
+         }
       }
       // 6. 返回旧缓存信息
 
       return r;
    }
 
+   /**
+    * 提前刷新判断(XFetch): now - rebuildMillis * beta * ln(rand) >= expireTime
+    * 重建越慢、越接近过期 越可能提前触发重建
+    * @param redisData
+    * @return
+    */
+   private boolean shouldRefreshAhead(RedisData redisData){
+      Long rebuildMillis = redisData.getRebuildMillis();
+      if(!refreshAheadEnabled || rebuildMillis == null){
+         return false;
+      }
+      double gap = rebuildMillis * refreshAheadBeta * -Math.log(1 - ThreadLocalRandom.current().nextDouble());
+      return !LocalDateTime.now().plus((long) gap, ChronoUnit.MILLIS).isBefore(redisData.getExpireTime());
+   }
+
    /**
     * 获得互斥锁
     * @param key
     * @return
     */
+   /**
+    * 缓存重建锁 按完整的缓存key区分 不同前缀的相同ID互不影响
+    * @param key 缓存key
+    * @return
+    */
+   private static String lockKey(String key){
+      return LOCK_CACHE_KEY + key;
+   }
+
    private boolean tryLock(String key){
       return Boolean.TRUE.equals(stringRedisTemplate.opsForValue().setIfAbsent(key,"1",LOCK_SHOP_TTL,TimeUnit.MINUTES));
    }
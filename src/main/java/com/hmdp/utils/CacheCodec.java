@@ -0,0 +1,20 @@
+package com.hmdp.utils;
+
+import java.util.List;
+
+/**
+ * 缓存值编解码
+ */
+public interface CacheCodec {
+
+    /**
+     * 编码标识 写入缓存头部 读取时据此选择解码器
+     */
+    byte id();
+
+    byte[] encode(Object value);
+
+    <T> T decode(byte[] bytes, Class<T> type);
+
+    <T> List<T> decodeList(byte[] bytes, Class<T> type);
+}
@@ -0,0 +1,79 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存失效
+ * 事务提交后删除缓存 延迟再删除一次(延迟双删) 删除失败放入本地重试队列
+ */
+@Component
+@Slf4j
+public class CacheInvalidator {
+
+    private final CacheClient cacheClient;
+
+    // 延迟双删的间隔
+    @Value("${hmdp.cache.invalidate.double-delete-delay-millis:500}")
+    private long doubleDeleteDelayMillis;
+    // 删除失败的最大重试次数 重试间隔按2的幂增长
+    @Value("${hmdp.cache.invalidate.max-retries:5}")
+    private int maxRetries;
+    @Value("${hmdp.cache.invalidate.retry-base-millis:200}")
+    private long retryBaseMillis;
+
+    // 延迟删除与失败重试的定时线程池 由ExecutorRegistry管理
+    private final ScheduledExecutorService scheduler;
+
+    public CacheInvalidator(CacheClient cacheClient, ExecutorRegistry executorRegistry) {
+        this.cacheClient = cacheClient;
+        this.scheduler = executorRegistry.registerScheduled("cache-invalidator", 1);
+    }
+
+    /**
+     * 删除缓存 存在事务时在事务提交后执行
+     * @param key
+     */
+    public void invalidateAfterCommit(String key) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidate(key);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                invalidate(key);
+            }
+        });
+    }
+
+    /**
+     * 立即删除 并延迟再删除一次 防止提交前读到旧数据的请求把旧值写回缓存
+     * @param key
+     */
+    public void invalidate(String key) {
+        delete(key, 0);
+        scheduler.schedule(() -> delete(key, 0), doubleDeleteDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void delete(String key, int attempt) {
+        try {
+            cacheClient.delete(key);
+            log.info("CacheInvalidator 删除缓存成功:{}", key);
+        } catch (Exception e) {
+            if (attempt >= maxRetries) {
+                log.error("CacheInvalidator 删除缓存失败 放弃重试:{}", key, e);
+                return;
+            }
+            long delay = retryBaseMillis << attempt;
+            log.warn("CacheInvalidator 删除缓存失败 {}ms后第{}次重试:{}", delay, attempt + 1, key);
+            scheduler.schedule(() -> delete(key, attempt + 1), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+}
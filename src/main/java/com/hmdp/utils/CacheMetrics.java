@@ -0,0 +1,66 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存指标 按key前缀统计 通过 /actuator/metrics/cache.events 与 /actuator/metrics/cache.latency 查看
+ */
+@Component
+public class CacheMetrics {
+
+    // 事件
+    public static final String LOCAL_HIT = "local_hit";
+    public static final String HIT = "hit";
+    public static final String MISS = "miss";
+    public static final String NULL_HIT = "null_hit";
+    public static final String REBUILD = "rebuild";
+    public static final String LOCK_CONTENTION = "lock_contention";
+
+    // 耗时阶段
+    public static final String STAGE_REDIS = "redis";
+    public static final String STAGE_DECODE = "decode";
+    public static final String STAGE_DB = "db";
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public CacheMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public void count(String prefix, String event) {
+        count(prefix, event, 1);
+    }
+
+    public void count(String prefix, String event, int amount) {
+        if (amount > 0) {
+            counters.computeIfAbsent(prefix + "|" + event, k -> Counter.builder("cache.events")
+                    .tag("prefix", prefix)
+                    .tag("event", event)
+                    .register(meterRegistry)).increment(amount);
+        }
+    }
+
+    /**
+     * 记录耗时 带百分位与直方图
+     * @param prefix
+     * @param stage
+     * @param nanos
+     */
+    public void record(String prefix, String stage, long nanos) {
+        timers.computeIfAbsent(prefix + "|" + stage, k -> Timer.builder("cache.latency")
+                .tag("prefix", prefix)
+                .tag("stage", stage)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .publishPercentileHistogram()
+                .register(meterRegistry)).record(nanos, TimeUnit.NANOSECONDS);
+    }
+}
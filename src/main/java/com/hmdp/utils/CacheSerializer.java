@@ -0,0 +1,178 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 缓存值序列化
+ * 新格式: 魔数(1) 版本(1) 编码标识(1) 标志位(1) [逻辑过期时间(8) 重建耗时(8)] 数据
+ * 没有头部的值按旧的hutool JSON格式读取 灰度期间两种格式均可读取
+ * 旧版本节点只能读取JSON格式 默认写入JSON 所有节点升级完成后再切换为smile
+ */
+@Component
+public class CacheSerializer {
+
+    private static final byte MAGIC = (byte) 0xC5;
+    private static final byte VERSION = 1;
+    private static final int HEADER_LENGTH = 4;
+    private static final int LOGICAL_LENGTH = 16;
+
+    private static final int FLAG_DEFLATE = 1;
+    private static final int FLAG_LOGICAL = 1 << 1;
+
+    private final Map<Byte, CacheCodec> codecs = new HashMap<>();
+    private final JsonCacheCodec jsonCodec = new JsonCacheCodec();
+    // 写入使用的编码 为null时写入旧的JSON格式
+    private final CacheCodec writeCodec;
+    private final int compressThreshold;
+
+    public CacheSerializer(@Value("${hmdp.cache.codec:json}") String codec,
+                           @Value("${hmdp.cache.compress-threshold:512}") int compressThreshold) {
+        codecs.put(JsonCacheCodec.ID, jsonCodec);
+        SmileCacheCodec smileCodec = new SmileCacheCodec();
+        codecs.put(SmileCacheCodec.ID, smileCodec);
+        this.writeCodec = "smile".equalsIgnoreCase(codec) ? smileCodec : null;
+        this.compressThreshold = compressThreshold;
+    }
+
+    public byte[] serialize(Object value) {
+        if (writeCodec == null) {
+            return jsonCodec.encode(value);
+        }
+        return write(0, null, writeCodec.encode(value));
+    }
+
+    public byte[] serializeLogical(RedisData redisData) {
+        if (writeCodec == null) {
+            return jsonCodec.encode(redisData);
+        }
+        ByteBuffer logical = ByteBuffer.allocate(LOGICAL_LENGTH);
+        logical.putLong(redisData.getExpireTime().toInstant(ZoneOffset.UTC).toEpochMilli());
+        logical.putLong(redisData.getRebuildMillis() == null ? -1L : redisData.getRebuildMillis());
+        return write(FLAG_LOGICAL, logical.array(), writeCodec.encode(redisData.getData()));
+    }
+
+    public <T> T deserialize(byte[] bytes, Class<T> type) {
+        if (!hasHeader(bytes)) {
+            return jsonCodec.decode(bytes, type);
+        }
+        return codec(bytes).decode(payload(bytes), type);
+    }
+
+    public <T> List<T> deserializeList(byte[] bytes, Class<T> type) {
+        if (!hasHeader(bytes)) {
+            return jsonCodec.decodeList(bytes, type);
+        }
+        return codec(bytes).decodeList(payload(bytes), type);
+    }
+
+    /**
+     * 读取逻辑过期数据 返回的RedisData中data已是目标类型
+     */
+    public <T> RedisData deserializeLogical(byte[] bytes, Class<T> type) {
+        if (!hasHeader(bytes)) {
+            RedisData redisData = JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), RedisData.class);
+            redisData.setData(JSONUtil.toBean((JSONObject) redisData.getData(), type));
+            return redisData;
+        }
+        ByteBuffer logical = ByteBuffer.wrap(bytes, HEADER_LENGTH, LOGICAL_LENGTH);
+        long expireMillis = logical.getLong();
+        LocalDateTime expireTime = LocalDateTime.ofEpochSecond(Math.floorDiv(expireMillis, 1000L),
+                (int) Math.floorMod(expireMillis, 1000L) * 1_000_000, ZoneOffset.UTC);
+        long rebuildMillis = logical.getLong();
+        T data = codec(bytes).decode(payload(bytes), type);
+        return new RedisData(expireTime, data, rebuildMillis < 0 ? null : rebuildMillis);
+    }
+
+    private boolean hasHeader(byte[] bytes) {
+        return bytes.length >= HEADER_LENGTH && bytes[0] == MAGIC && bytes[1] == VERSION;
+    }
+
+    private CacheCodec codec(byte[] bytes) {
+        CacheCodec codec = codecs.get(bytes[2]);
+        if (codec == null) {
+            throw new IllegalStateException("未知的缓存编码:" + bytes[2]);
+        }
+        return codec;
+    }
+
+    private byte[] write(int flags, byte[] logical, byte[] payload) {
+        if (payload.length >= compressThreshold) {
+            byte[] compressed = deflate(payload);
+            if (compressed.length < payload.length) {
+                payload = compressed;
+                flags |= FLAG_DEFLATE;
+            }
+        }
+        int logicalLength = logical == null ? 0 : logical.length;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + logicalLength + payload.length);
+        buffer.put(MAGIC).put(VERSION).put(writeCodec.id()).put((byte) flags);
+        if (logical != null) {
+            buffer.put(logical);
+        }
+        buffer.put(payload);
+        return buffer.array();
+    }
+
+    private byte[] payload(byte[] bytes) {
+        int flags = bytes[3];
+        int offset = HEADER_LENGTH + ((flags & FLAG_LOGICAL) != 0 ? LOGICAL_LENGTH : 0);
+        if ((flags & FLAG_DEFLATE) != 0) {
+            return inflate(bytes, offset);
+        }
+        byte[] payload = new byte[bytes.length - offset];
+        System.arraycopy(bytes, offset, payload, 0, payload.length);
+        return payload;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+            byte[] buf = new byte[1024];
+            while (!deflater.finished()) {
+                out.write(buf, 0, deflater.deflate(buf));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data, int offset) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, offset, data.length - offset);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 2);
+            byte[] buf = new byte[1024];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buf);
+                if (n == 0 && inflater.needsInput()) {
+                    throw new IllegalStateException("缓存数据不完整");
+                }
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.hmdp.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Count-Min Sketch 固定内存的近似计数 只会高估不会低估
+ */
+public class CountMinSketch {
+
+    private final int depth;
+    private final int width;
+    private final AtomicIntegerArray table;
+
+    public CountMinSketch(int depth, int width) {
+        this.depth = depth;
+        this.width = width;
+        this.table = new AtomicIntegerArray(depth * width);
+    }
+
+    /**
+     * 计数加一 返回加一后的估计值
+     */
+    public int add(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            min = Math.min(min, table.incrementAndGet(i * width + index(h1, h2, i)));
+        }
+        return min;
+    }
+
+    public int estimate(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            min = Math.min(min, table.get(i * width + index(h1, h2, i)));
+        }
+        return min;
+    }
+
+    private int index(int h1, int h2, int i) {
+        return ((h1 + i * h2) & Integer.MAX_VALUE) % width;
+    }
+
+    private static long hash(String key) {
+        // FNV-1a 64位
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,144 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 线程池统一管理
+ * 有界队列 + 拒绝策略 线程命名 指标(executor.active/queued/completed) 容器关闭时优雅停止
+ * 线程数与队列长度可通过 hmdp.executor.{name}.core-size / max-size / queue-capacity 覆盖
+ */
+@Component
+@Slf4j
+public class ExecutorRegistry implements DisposableBean {
+
+    private final MeterRegistry meterRegistry;
+    private final Environment environment;
+
+    private final Map<String, ExecutorService> executors = new LinkedHashMap<>();
+    // 正在执行的去重任务 线程池名:任务key
+    private final Map<String, Boolean> runningTasks = new ConcurrentHashMap<>();
+
+    public ExecutorRegistry(MeterRegistry meterRegistry, Environment environment) {
+        this.meterRegistry = meterRegistry;
+        this.environment = environment;
+    }
+
+    /**
+     * 创建并注册线程池
+     * @param name 线程池名称
+     * @param coreSize 默认核心线程数
+     * @param maxSize 默认最大线程数
+     * @param queueCapacity 默认队列长度
+     * @param rejectedHandler 拒绝策略
+     * @return
+     */
+    public synchronized ThreadPoolExecutor register(String name, int coreSize, int maxSize, int queueCapacity,
+                                                    RejectedExecutionHandler rejectedHandler) {
+        int core = property(name, "core-size", coreSize);
+        int max = Math.max(core, property(name, "max-size", maxSize));
+        int capacity = property(name, "queue-capacity", queueCapacity);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(core, max, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(capacity), threadFactory(name), rejectedHandler);
+        bind(name, executor);
+        log.info("ExecutorRegistry 注册线程池:{} core:{} max:{} queue:{}", name, core, max, capacity);
+        return executor;
+    }
+
+    /**
+     * 创建并注册定时线程池
+     * @param name
+     * @param coreSize
+     * @return
+     */
+    public synchronized ScheduledExecutorService registerScheduled(String name, int coreSize) {
+        int core = property(name, "core-size", coreSize);
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(core, threadFactory(name));
+        executor.setRemoveOnCancelPolicy(true);
+        bind(name, executor);
+        log.info("ExecutorRegistry 注册定时线程池:{} core:{}", name, core);
+        return executor;
+    }
+
+    /**
+     * 提交去重任务 同一线程池中相同key的任务未结束前不会重复提交
+     * @param executor
+     * @param name 线程池名称
+     * @param taskKey 任务key
+     * @param task
+     * @return 是否提交成功 重复或被拒绝返回false
+     */
+    public boolean submitUnique(ExecutorService executor, String name, String taskKey, Runnable task) {
+        String key = name + ":" + taskKey;
+        if (runningTasks.putIfAbsent(key, Boolean.TRUE) != null) {
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    runningTasks.remove(key);
+                }
+            });
+            return true;
+        } catch (RuntimeException e) {
+            runningTasks.remove(key);
+            log.warn("ExecutorRegistry 任务被拒绝:{} {}", key, e.toString());
+            return false;
+        }
+    }
+
+    private void bind(String name, ExecutorService executor) {
+        if (executors.containsKey(name)) {
+            throw new IllegalStateException("线程池已存在:" + name);
+        }
+        executors.put(name, executor);
+        new ExecutorServiceMetrics(executor, name, Tags.empty()).bindTo(meterRegistry);
+    }
+
+    private int property(String name, String key, int defaultValue) {
+        return environment.getProperty("hmdp.executor." + name + "." + key, Integer.class, defaultValue);
+    }
+
+    private static ThreadFactory threadFactory(String name) {
+        AtomicInteger index = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @Override
+    public synchronized void destroy() throws InterruptedException {
+        long timeout = environment.getProperty("hmdp.executor.shutdown-timeout-seconds", Long.class, 10L);
+        executors.values().forEach(ExecutorService::shutdown);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+        for (Map.Entry<String, ExecutorService> entry : executors.entrySet()) {
+            long remaining = deadline - System.nanoTime();
+            if (!entry.getValue().awaitTermination(Math.max(0, remaining), TimeUnit.NANOSECONDS)) {
+                log.warn("ExecutorRegistry 线程池未在{}秒内停止 强制关闭:{}", timeout, entry.getKey());
+                entry.getValue().shutdownNow();
+            }
+        }
+    }
+}
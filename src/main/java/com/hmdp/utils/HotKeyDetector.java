@@ -0,0 +1,115 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.HotKeyDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 热点key探测
+ * 两个Count-Min Sketch轮换组成滑动窗口 窗口内访问次数超过阈值的key标记为热点
+ */
+@Component
+@Slf4j
+public class HotKeyDetector {
+
+    @Value("${hmdp.hotkey.enabled:true}")
+    private boolean enabled;
+    @Value("${hmdp.hotkey.window-millis:1000}")
+    private long windowMillis;
+    // 一个窗口内访问次数达到该值即为热点
+    @Value("${hmdp.hotkey.threshold:500}")
+    private int threshold;
+    @Value("${hmdp.hotkey.sketch-depth:4}")
+    private int sketchDepth;
+    @Value("${hmdp.hotkey.sketch-width:4096}")
+    private int sketchWidth;
+    // 最多记录的热点key数量
+    @Value("${hmdp.hotkey.max-hot-keys:100}")
+    private int maxHotKeys;
+
+    private volatile Window current;
+    private volatile Window previous;
+    // 热点key -> 最近一次统计
+    private final Map<String, HotKeyDTO> hotKeys = new ConcurrentHashMap<>();
+
+    /**
+     * 记录一次访问
+     * @param key
+     * @return 是否为热点key
+     */
+    public boolean record(String key) {
+        if (!enabled) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        Window window = current;
+        if (window == null || now - window.start >= windowMillis) {
+            window = rotate(now);
+        }
+        int count = window.sketch.add(key);
+        // 按上个窗口剩余的时间比例加权 近似滑动窗口
+        Window prev = previous;
+        if (prev != null) {
+            double weight = 1 - (double) (now - window.start) / windowMillis;
+            count += (int) (prev.sketch.estimate(key) * Math.max(0, weight));
+        }
+        if (count < threshold) {
+            return hotKeys.containsKey(key);
+        }
+        HotKeyDTO hotKey = hotKeys.get(key);
+        if (hotKey == null) {
+            if (hotKeys.size() >= maxHotKeys) {
+                return false;
+            }
+            log.info("HotKeyDetector 发现热点key:{} 窗口访问次数:{}", key, count);
+            hotKeys.put(key, new HotKeyDTO(key, count, now));
+        } else {
+            hotKey.setCount(count);
+            hotKey.setLastSeen(now);
+        }
+        return true;
+    }
+
+    public boolean isHot(String key) {
+        return enabled && hotKeys.containsKey(key);
+    }
+
+    /**
+     * 当前热点key 按访问次数降序
+     */
+    public List<HotKeyDTO> report() {
+        List<HotKeyDTO> list = new ArrayList<>(hotKeys.values());
+        list.sort(Comparator.comparing(HotKeyDTO::getCount).reversed());
+        return list;
+    }
+
+    private synchronized Window rotate(long now) {
+        Window window = current;
+        if (window != null && now - window.start < windowMillis) {
+            return window;
+        }
+        // 距离上次窗口已超过两个周期 上个窗口数据作废
+        previous = window != null && now - window.start < 2 * windowMillis ? window : null;
+        current = new Window(now, new CountMinSketch(sketchDepth, sketchWidth));
+        // 两个窗口内未再达到阈值的key不再视为热点
+        hotKeys.values().removeIf(hotKey -> now - hotKey.getLastSeen() > 2 * windowMillis);
+        return current;
+    }
+
+    private static class Window {
+        private final long start;
+        private final CountMinSketch sketch;
+
+        private Window(long start, CountMinSketch sketch) {
+            this.start = start;
+            this.sketch = sketch;
+        }
+    }
+}
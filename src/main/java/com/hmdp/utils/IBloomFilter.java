@@ -0,0 +1,29 @@
+package com.hmdp.utils;
+
+public interface IBloomFilter {
+
+    /**
+     * 加入元素
+     */
+    void put(String value);
+
+    /**
+     * 元素可能存在返回true 一定不存在返回false
+     */
+    boolean mightContain(String value);
+
+    /**
+     * 已加入的元素数量(近似)
+     */
+    long insertions();
+
+    /**
+     * 配置的误判率
+     */
+    double expectedFpp();
+
+    /**
+     * 按当前已加入数量估算的误判率
+     */
+    double estimatedFpp();
+}
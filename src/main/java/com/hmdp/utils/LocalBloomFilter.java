@@ -0,0 +1,46 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 进程内布隆过滤器 每个节点各自维护一份
+ */
+public class LocalBloomFilter extends AbstractBloomFilter {
+
+    private final AtomicLongArray words;
+
+    public LocalBloomFilter(long expectedInsertions, double fpp) {
+        super(expectedInsertions, fpp);
+        this.words = new AtomicLongArray((int) ((bitSize + 63) >>> 6));
+    }
+
+    @Override
+    protected long maxBitSize() {
+        return (long) Integer.MAX_VALUE;
+    }
+
+    @Override
+    protected void setBits(long[] offsets) {
+        for (long offset : offsets) {
+            int index = (int) (offset >>> 6);
+            long mask = 1L << offset;
+            long old;
+            do {
+                old = words.get(index);
+                if ((old & mask) != 0) {
+                    break;
+                }
+            } while (!words.compareAndSet(index, old, old | mask));
+        }
+    }
+
+    @Override
+    protected boolean allBitsSet(long[] offsets) {
+        for (long offset : offsets) {
+            if ((words.get((int) (offset >>> 6)) & (1L << offset)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
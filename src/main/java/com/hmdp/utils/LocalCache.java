@@ -0,0 +1,103 @@
+package com.hmdp.utils;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内一级缓存 容量有限 每个条目带各自的过期时间
+ * 基于ConcurrentHashMap 读取不加锁 只记录访问时间
+ * 超过容量时先清理过期条目 仍超出时从少量条目中淘汰最久未访问的一个(近似LRU)
+ */
+public class LocalCache {
+
+    // 每次淘汰时比较的条目数
+    private static final int EVICTION_SAMPLES = 8;
+
+    private final int maxSize;
+    private final Map<String, Entry> map = new ConcurrentHashMap<>();
+
+    public LocalCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 获取缓存 不存在或已过期返回null
+     * @param key
+     * @return
+     */
+    public Object get(String key) {
+        Entry entry = map.get(key);
+        if (entry == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (entry.expireAt < now) {
+            map.remove(key, entry);
+            return null;
+        }
+        entry.accessAt = now;
+        return entry.value;
+    }
+
+    /**
+     * 写入缓存
+     * @param key
+     * @param value
+     * @param ttlMillis 存活时间(毫秒)
+     */
+    public void put(String key, Object value, long ttlMillis) {
+        long now = System.currentTimeMillis();
+        if (map.put(key, new Entry(value, now + ttlMillis, now)) == null && map.size() > maxSize) {
+            evict(now);
+        }
+    }
+
+    public void invalidate(String key) {
+        map.remove(key);
+    }
+
+    public void clear() {
+        map.clear();
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * 淘汰条目 并发写入时容量可能短暂超出上限
+     * @param now
+     */
+    private void evict(long now) {
+        map.entrySet().removeIf(e -> e.getValue().expireAt < now);
+        while (map.size() > maxSize) {
+            String eldest = null;
+            long eldestAccess = Long.MAX_VALUE;
+            Iterator<Map.Entry<String, Entry>> it = map.entrySet().iterator();
+            for (int i = 0; i < EVICTION_SAMPLES && it.hasNext(); i++) {
+                Map.Entry<String, Entry> e = it.next();
+                if (e.getValue().accessAt < eldestAccess) {
+                    eldest = e.getKey();
+                    eldestAccess = e.getValue().accessAt;
+                }
+            }
+            if (eldest == null) {
+                return;
+            }
+            map.remove(eldest);
+        }
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final long expireAt;
+        private volatile long accessAt;
+
+        private Entry(Object value, long expireAt, long accessAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+            this.accessAt = accessAt;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * 本地订单日志
+ * 订单按序号顺序追加到内存映射的日志段文件 段写满后滚动到新文件 文件名为段内第一条记录的序号
+ * 追加的订单同时发布到环形缓冲区 由单个消费线程批量取出落库 落库后推进检查点并删除已落库的日志段
+ * 重启时从检查点开始重放尚未落库的订单
+ * 记录定长32字节: 标记(4) 订单ID(8) 用户ID(8) 券ID(8) CRC32(4) 标记最后写入 未写完的记录在重放时被忽略
+ */
+@Slf4j
+public class OrderJournal {
+
+    private static final int RECORD_SIZE = 32;
+    private static final int MARKER = 0x4F524431;
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    private final File dir;
+    private final int recordsPerSegment;
+    private final boolean forceOnAppend;
+
+    // 环形缓冲区 容量为2的幂
+    private final VoucherOrder[] ring;
+    private final int mask;
+    // 已发布的最大序号
+    private final AtomicLong published = new AtomicLong(-1);
+    // 下一个待落库的序号 即检查点
+    private final AtomicLong consumed = new AtomicLong();
+
+    private long nextSequence;
+    private long segmentFirst;
+    private MappedByteBuffer segment;
+    private FileChannel checkpointChannel;
+    // 打开并重放完成后才接受追加
+    private volatile boolean opened;
+
+    /**
+     * @param dir 日志目录
+     * @param recordsPerSegment 每个日志段的记录数
+     * @param ringSize 环形缓冲区容量 向上取2的幂
+     * @param forceOnAppend 每次追加后是否刷盘 否则由flush定期刷盘 进程崩溃不丢失 操作系统崩溃可能丢失最近的记录
+     */
+    public OrderJournal(File dir, int recordsPerSegment, int ringSize, boolean forceOnAppend) {
+        this.dir = dir;
+        this.recordsPerSegment = recordsPerSegment;
+        this.forceOnAppend = forceOnAppend;
+        int capacity = Integer.highestOneBit(Math.max(ringSize - 1, 1)) << 1;
+        this.ring = new VoucherOrder[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * 打开日志 重放检查点之后尚未落库的订单 重放期间追加的请求等待打开完成
+     * @param handler 按批处理重放的订单 返回后即推进检查点
+     * @param batchSize 每批订单数
+     * @throws IOException
+     */
+    public synchronized void open(Consumer<List<VoucherOrder>> handler, int batchSize) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("无法创建订单日志目录:" + dir);
+        }
+        checkpointChannel = new RandomAccessFile(new File(dir, CHECKPOINT_FILE), "rw").getChannel();
+        long checkpoint = readCheckpoint();
+        long next = checkpoint;
+        List<VoucherOrder> batch = new ArrayList<>(batchSize);
+        for (File file : segments()) {
+            long first = firstSequence(file);
+            MappedByteBuffer buffer = map(file);
+            int count = 0;
+            while (count < recordsPerSegment) {
+                VoucherOrder order = read(buffer, count * RECORD_SIZE);
+                if (order == null) {
+                    break;
+                }
+                long sequence = first + count++;
+                if (sequence < checkpoint) {
+                    continue;
+                }
+                batch.add(order);
+                if (batch.size() >= batchSize) {
+                    handler.accept(batch);
+                    writeCheckpoint(sequence + 1);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            next = Math.max(next, first + count);
+            segmentFirst = first;
+            segment = buffer;
+        }
+        if (!batch.isEmpty()) {
+            handler.accept(batch);
+        }
+        writeCheckpoint(next);
+        log.info("OrderJournal 打开订单日志:{} 检查点:{} 重放:{}", dir, checkpoint, next - checkpoint);
+        nextSequence = next;
+        consumed.set(next);
+        published.set(next - 1);
+        // 最后一个日志段已写满或没有日志段时滚动到新段
+        if (segment == null || nextSequence - segmentFirst >= recordsPerSegment) {
+            roll(nextSequence);
+        }
+        deleteConsumedSegments();
+        opened = true;
+    }
+
+    /**
+     * 是否已打开 未打开时追加会失败
+     * @return
+     */
+    public boolean isOpen() {
+        return opened;
+    }
+
+    /**
+     * 追加订单 环形缓冲区满时等待消费线程 最多等待timeoutMillis 等待期间不持有锁
+     * @param order
+     * @param timeoutMillis
+     * @return 订单序号 等待超时缓冲区仍满时返回-1 订单未写入
+     * @throws IOException
+     */
+    public long append(VoucherOrder order, long timeoutMillis) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (true) {
+            synchronized (this) {
+                if (!opened) {
+                    throw new IOException("订单日志尚未打开");
+                }
+                if (nextSequence - consumed.get() < ring.length) {
+                    return write(order);
+                }
+            }
+            if (System.nanoTime() >= deadline) {
+                return -1;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new IOException("等待订单日志缓冲区时被中断");
+            }
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+    }
+
+    private long write(VoucherOrder order) throws IOException {
+        long sequence = nextSequence;
+        if (sequence - segmentFirst >= recordsPerSegment) {
+            roll(sequence);
+        }
+        write(segment, (int) (sequence - segmentFirst) * RECORD_SIZE, order);
+        if (forceOnAppend) {
+            segment.force();
+        }
+        ring[(int) (sequence & mask)] = order;
+        nextSequence = sequence + 1;
+        published.set(sequence);
+        return sequence;
+    }
+
+    /**
+     * 取出一批待落库的订单 没有订单时最多等待timeoutMillis 只允许单个消费线程调用
+     * @param max
+     * @param timeoutMillis
+     * @return 从检查点开始的连续订单 落库后调用commit
+     */
+    public List<VoucherOrder> poll(int max, long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long from = consumed.get();
+        while (published.get() < from && System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        long to = Math.min(published.get(), from + max - 1);
+        List<VoucherOrder> orders = new ArrayList<>((int) Math.max(to - from + 1, 0));
+        for (long sequence = from; sequence <= to; sequence++) {
+            orders.add(ring[(int) (sequence & mask)]);
+        }
+        return orders;
+    }
+
+    /**
+     * 确认已落库 推进检查点 释放环形缓冲区
+     * @param count 本批订单数
+     * @throws IOException
+     */
+    public void commit(int count) throws IOException {
+        long from = consumed.get();
+        for (long sequence = from; sequence < from + count; sequence++) {
+            ring[(int) (sequence & mask)] = null;
+        }
+        writeCheckpoint(from + count);
+        consumed.set(from + count);
+        deleteConsumedSegments();
+    }
+
+    /**
+     * 刷盘当前日志段
+     */
+    public synchronized void flush() {
+        if (segment != null) {
+            segment.force();
+        }
+    }
+
+    /**
+     * 尚未落库的订单数
+     * @return
+     */
+    public long backlog() {
+        return published.get() + 1 - consumed.get();
+    }
+
+    private void roll(long first) throws IOException {
+        if (segment != null) {
+            segment.force();
+        }
+        segment = map(new File(dir, String.format("%020d%s", first, SEGMENT_SUFFIX)));
+        segmentFirst = first;
+        log.info("OrderJournal 滚动日志段:{}", first);
+    }
+
+    private MappedByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long) recordsPerSegment * RECORD_SIZE);
+        }
+    }
+
+    /**
+     * 删除全部记录都已落库的日志段 当前段除外
+     */
+    private synchronized void deleteConsumedSegments() {
+        long checkpoint = consumed.get();
+        for (File file : segments()) {
+            long first = firstSequence(file);
+            if (first != segmentFirst && first + recordsPerSegment <= checkpoint) {
+                if (!file.delete()) {
+                    log.warn("OrderJournal 删除日志段失败:{}", file);
+                }
+            }
+        }
+    }
+
+    private List<File> segments() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    private static long firstSequence(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static void write(ByteBuffer buffer, int position, VoucherOrder order) {
+        buffer.putLong(position + 4, order.getId());
+        buffer.putLong(position + 12, order.getUserId());
+        buffer.putLong(position + 20, order.getVoucherId());
+        buffer.putInt(position + 28, crc(buffer, position));
+        // 标记最后写入
+        buffer.putInt(position, MARKER);
+    }
+
+    private static VoucherOrder read(ByteBuffer buffer, int position) {
+        if (buffer.getInt(position) != MARKER || buffer.getInt(position + 28) != crc(buffer, position)) {
+            return null;
+        }
+        VoucherOrder order = new VoucherOrder();
+        order.setId(buffer.getLong(position + 4));
+        order.setUserId(buffer.getLong(position + 12));
+        order.setVoucherId(buffer.getLong(position + 20));
+        return order;
+    }
+
+    private static int crc(ByteBuffer buffer, int position) {
+        CRC32 crc = new CRC32();
+        for (int i = position + 4; i < position + 28; i++) {
+            crc.update(buffer.get(i));
+        }
+        return (int) crc.getValue();
+    }
+
+    private long readCheckpoint() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        if (checkpointChannel.read(buffer, 0) < 8) {
+            return 0;
+        }
+        buffer.flip();
+        return buffer.getLong();
+    }
+
+    private void writeCheckpoint(long checkpoint) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.putLong(checkpoint).flip();
+        checkpointChannel.write(buffer, 0);
+        checkpointChannel.force(false);
+    }
+}
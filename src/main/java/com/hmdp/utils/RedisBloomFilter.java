@@ -0,0 +1,56 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.List;
+
+/**
+ * 基于Redis位图的布隆过滤器 所有节点共享 SETBIT/GETBIT 通过管道一次往返完成
+ */
+public class RedisBloomFilter extends AbstractBloomFilter {
+
+    private final String key;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public RedisBloomFilter(String key, long expectedInsertions, double fpp, StringRedisTemplate stringRedisTemplate) {
+        super(expectedInsertions, fpp);
+        this.key = key;
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    @Override
+    protected long maxBitSize() {
+        // Redis字符串最大512MB
+        return 1L << 32;
+    }
+
+    @Override
+    protected void setBits(long[] offsets) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (long offset : offsets) {
+                conn.setBit(key, offset, true);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    protected boolean allBitsSet(long[] offsets) {
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (long offset : offsets) {
+                conn.getBit(key, offset);
+            }
+            return null;
+        });
+        for (Object result : results) {
+            if (!Boolean.TRUE.equals(result)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -10,11 +10,35 @@ public class RedisConstants {
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final Long CACHE_SHOP_LOCAL_TTL = 10L;
+
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String CACHE_BLOOM_CHANNEL = "cache:bloom";
+    public static final String BLOOM_FILTER_KEY = "bloom:";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
+    public static final String LOCK_CACHE_KEY = "lock:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_STOCK_SEGMENTS_KEY = "seckill:stock-segments:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_ORDER_STATUS_KEY = "order:status:";
+    public static final String SECKILL_STREAM_KEY = "stream.order";
+    public static final String SECKILL_STREAM_GROUP = "g1";
+    public static final String SECKILL_STREAM_DLQ_KEY = "stream.order.dlq";
+    public static final String SECKILL_STREAM_LEASE_KEY = "lock:stream:";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:sold-out";
+    public static final String SECKILL_BUCKET_KEY = "seckill:bucket:";
+    public static final String SECKILL_QUEUE_KEY = "seckill:queue:";
+    public static final String SECKILL_QUEUE_SEQ_KEY = "seckill:queue:seq:";
+    public static final String SECKILL_QUEUE_ACTIVE_KEY = "seckill:queue:active";
+    public static final String SECKILL_ADMIT_KEY = "seckill:admit:";
+    public static final String SECKILL_ADMITTED_KEY = "seckill:admitted:";
+    public static final String LOCK_WAITING_ROOM_KEY = "lock:waiting-room:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
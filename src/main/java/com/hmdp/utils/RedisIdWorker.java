@@ -15,6 +15,9 @@ public class RedisIdWorker {
 
     private static final int COUNT_BITS = 32;
 
+    // Lua数字为双精度 传给脚本的ID时间部分按该基数拆成高低两段 脚本内按 高段 + 9位低段 拼接
+    public static final long ORDER_ID_RADIX = 1000000000L;
+
     private StringRedisTemplate stringRedisTemplate;
 
     public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
@@ -24,14 +27,34 @@ public class RedisIdWorker {
     public long nextId(String keyPrefix){
 
         // 1. 获取当前时间的时间戳
-        long now = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC)-BEGIN_TIMESTAMP;
+        long now = timePart();
 
         // 2. 获取序列号
-        // 2.1 获取当前日期
-        String date = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        // 2.2 获取自增ID
-        long id = stringRedisTemplate.opsForValue().increment("icr:"+keyPrefix+":"+date);
+        long id = stringRedisTemplate.opsForValue().increment(counterKey(keyPrefix));
         // 3. 返回
-        return now<<COUNT_BITS|id;
+        return now|id;
+    }
+
+    /**
+     * ID的时间部分 低32位留给序列号 供Lua脚本内生成ID时使用
+     * @return
+     */
+    public long timePart(){
+        return timePart(LocalDateTime.now());
+    }
+
+    static long timePart(LocalDateTime time){
+        long now = time.toEpochSecond(ZoneOffset.UTC)-BEGIN_TIMESTAMP;
+        return now<<COUNT_BITS;
+    }
+
+    /**
+     * 当天的序列号key
+     * @param keyPrefix
+     * @return
+     */
+    public String counterKey(String keyPrefix){
+        String date = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        return "icr:"+keyPrefix+":"+date;
     }
 }
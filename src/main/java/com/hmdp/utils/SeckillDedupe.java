@@ -0,0 +1,41 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+
+/**
+ * 秒杀一人一单去重
+ * set模式: seckill:order:{voucherId} 为用户ID集合
+ * bitmap模式: 按用户ID分块 seckill:order:{voucherId}:bitmap:{userId/chunkBits} 的第 userId%chunkBits 位
+ * 用户ID为连续的自增ID 位图每个用户只占1位
+ */
+@Component
+public class SeckillDedupe {
+
+    public static final String MODE_SET = "set";
+    public static final String MODE_BITMAP = "bitmap";
+
+    @Value("${hmdp.seckill.dedupe.mode:set}")
+    private String mode;
+    // 每个位图key覆盖的用户数
+    @Value("${hmdp.seckill.dedupe.chunk-bits:1048576}")
+    private long chunkBits;
+
+    public String mode() {
+        return MODE_BITMAP.equals(mode) ? MODE_BITMAP : MODE_SET;
+    }
+
+    public long chunkBits() {
+        return chunkBits;
+    }
+
+    public String setKey(String voucherId) {
+        return SECKILL_ORDER_KEY + voucherId;
+    }
+
+    public String bitmapKey(String voucherId, long userId) {
+        return SECKILL_ORDER_KEY + voucherId + ":bitmap:" + userId / chunkBits;
+    }
+}
@@ -0,0 +1,241 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.Result;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_KEY;
+
+/**
+ * 秒杀订单状态
+ * 秒杀脚本下单成功时写入 order:status:{orderId} = 0(处理中) 落库后更新为1(已落库) 失败为2
+ * 客户端按订单ID批量查询或长轮询 不再重复调用秒杀接口
+ */
+@Component
+@Slf4j
+public class SeckillOrderStatus {
+
+    public static final String PENDING = "PENDING";
+    public static final String PERSISTED = "PERSISTED";
+    public static final String FAILED = "FAILED";
+    // 没有状态记录 已过期或订单不存在
+    public static final String UNKNOWN = "UNKNOWN";
+
+    private static final String CODE_PERSISTED = "1";
+    private static final String CODE_FAILED = "2";
+
+    private static final String ORDER_STATUS_EXECUTOR = "order-status";
+    // 检查长轮询请求时每次MGET的最大key数 避免单条命令过大阻塞Redis
+    private static final int RESOLVE_BATCH_KEYS = 500;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private ExecutorRegistry executorRegistry;
+
+    // 状态记录有效期
+    @Value("${hmdp.seckill.order-status.ttl-seconds:86400}")
+    private long ttlSeconds;
+    @Value("${hmdp.seckill.order-status.max-batch:50}")
+    private int maxBatch;
+    @Value("${hmdp.seckill.order-status.poll-interval-millis:200}")
+    private long pollIntervalMillis;
+    @Value("${hmdp.seckill.order-status.max-wait-millis:30000}")
+    private long maxWaitMillis;
+
+    // 本节点等待结果的长轮询请求
+    private final Set<Waiter> waiters = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    private void init() {
+        executorRegistry.registerScheduled(ORDER_STATUS_EXECUTOR, 1).scheduleWithFixedDelay(this::resolveWaiters,
+                pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public long ttlSeconds() {
+        return ttlSeconds;
+    }
+
+    public int maxBatch() {
+        return maxBatch;
+    }
+
+    /**
+     * 标记已落库 存在事务时在提交后执行
+     * @param orderIds
+     */
+    public void markPersisted(Collection<Long> orderIds) {
+        markAfterCommit(orderIds, CODE_PERSISTED);
+    }
+
+    /**
+     * 标记落库失败 存在事务时在事务结束后执行 提交或回滚都写入 失败的订单通常伴随回滚
+     * @param orderIds
+     */
+    public void markFailed(Collection<Long> orderIds) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            mark(orderIds, CODE_FAILED);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                mark(orderIds, CODE_FAILED);
+            }
+        });
+    }
+
+    /**
+     * 批量查询订单状态
+     * @param orderIds
+     * @return 订单ID -> 状态
+     */
+    public Map<String, String> query(List<Long> orderIds) {
+        List<String> keys = new ArrayList<>(orderIds.size());
+        for (Long orderId : orderIds) {
+            keys.add(SECKILL_ORDER_STATUS_KEY + orderId);
+        }
+        List<String> codes = stringRedisTemplate.opsForValue().multiGet(keys);
+        // 订单ID超过JS数字精度 以字符串返回
+        Map<String, String> statuses = new LinkedHashMap<>(orderIds.size());
+        for (int i = 0; i < orderIds.size(); i++) {
+            statuses.put(orderIds.get(i).toString(), toStatus(codes == null ? null : codes.get(i)));
+        }
+        return statuses;
+    }
+
+    /**
+     * 长轮询订单状态 全部订单不再处理中时立即返回 否则最多等待wait毫秒后返回当前状态
+     * @param orderIds
+     * @param wait
+     * @return
+     */
+    public DeferredResult<Result> await(List<Long> orderIds, long wait) {
+        DeferredResult<Result> result = new DeferredResult<>(Math.min(wait, maxWaitMillis));
+        Map<String, String> statuses = query(orderIds);
+        if (wait <= 0 || !statuses.containsValue(PENDING)) {
+            result.setResult(Result.ok(statuses));
+            return result;
+        }
+        Waiter waiter = new Waiter(orderIds, result);
+        waiters.add(waiter);
+        result.onTimeout(() -> {
+            waiters.remove(waiter);
+            result.setResult(Result.ok(query(orderIds)));
+        });
+        result.onCompletion(() -> waiters.remove(waiter));
+        return result;
+    }
+
+    private void markAfterCommit(Collection<Long> orderIds, String code) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            mark(orderIds, code);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                mark(orderIds, code);
+            }
+        });
+    }
+
+    private void mark(Collection<Long> orderIds, String code) {
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Long orderId : orderIds) {
+                    conn.setEx(SECKILL_ORDER_STATUS_KEY + orderId, ttlSeconds, code);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            // 状态记录只用于查询 写入失败不影响订单
+            log.warn("SeckillOrderStatus:mark 更新订单状态失败 status:{} {}", code, e.toString());
+        }
+    }
+
+    /**
+     * 批量检查本节点的长轮询请求 按请求分组 每组一次MGET 每组key数不超过RESOLVE_BATCH_KEYS
+     */
+    private void resolveWaiters() {
+        if (waiters.isEmpty()) {
+            return;
+        }
+        List<Waiter> batch = new ArrayList<>();
+        int keyCount = 0;
+        for (Waiter waiter : waiters) {
+            if (keyCount > 0 && keyCount + waiter.orderIds.size() > RESOLVE_BATCH_KEYS) {
+                resolve(batch);
+                batch = new ArrayList<>();
+                keyCount = 0;
+            }
+            batch.add(waiter);
+            keyCount += waiter.orderIds.size();
+        }
+        resolve(batch);
+    }
+
+    private void resolve(List<Waiter> batch) {
+        try {
+            List<String> keys = new ArrayList<>();
+            for (Waiter waiter : batch) {
+                for (Long orderId : waiter.orderIds) {
+                    keys.add(SECKILL_ORDER_STATUS_KEY + orderId);
+                }
+            }
+            List<String> codes = stringRedisTemplate.opsForValue().multiGet(keys);
+            int index = 0;
+            for (Waiter waiter : batch) {
+                Map<String, String> statuses = new LinkedHashMap<>(waiter.orderIds.size());
+                for (Long orderId : waiter.orderIds) {
+                    statuses.put(orderId.toString(), toStatus(codes == null ? null : codes.get(index++)));
+                }
+                if (!statuses.containsValue(PENDING)) {
+                    waiters.remove(waiter);
+                    waiter.result.setResult(Result.ok(statuses));
+                }
+            }
+        } catch (Exception e) {
+            log.error("SeckillOrderStatus:resolveWaiters 检查失败", e);
+        }
+    }
+
+    private static String toStatus(String code) {
+        if (code == null) {
+            return UNKNOWN;
+        }
+        if (CODE_PERSISTED.equals(code)) {
+            return PERSISTED;
+        }
+        return CODE_FAILED.equals(code) ? FAILED : PENDING;
+    }
+
+    private static class Waiter {
+        private final List<Long> orderIds;
+        private final DeferredResult<Result> result;
+
+        private Waiter(List<Long> orderIds, DeferredResult<Result> result) {
+            this.orderIds = orderIds;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_BUCKET_KEY;
+
+/**
+ * 秒杀准入控制 两层令牌桶
+ * 本节点令牌桶拦截后不访问Redis 通过后再经过Redis中按券统计的全局令牌桶
+ * 速率与容量默认取 hmdp.seckill.rate-limit.* 可按券覆盖 hmdp.seckill.rate-limit.vouchers.{voucherId}.*
+ * 速率为0表示不限制该层
+ */
+@Component
+public class SeckillRateLimiter {
+
+    public static final String LAYER_NODE = "node";
+    public static final String LAYER_GLOBAL = "global";
+
+    private static final String PREFIX = "hmdp.seckill.rate-limit.";
+
+    private static final DefaultRedisScript<Long> TOKEN_BUCKET_SCRIPT;
+    static {
+        TOKEN_BUCKET_SCRIPT = new DefaultRedisScript<>();
+        TOKEN_BUCKET_SCRIPT.setResultType(Long.class);
+        TOKEN_BUCKET_SCRIPT.setLocation(new ClassPathResource("script/token_bucket.lua"));
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final Environment environment;
+    private final Counter nodeRejected;
+    private final Counter globalRejected;
+
+    // 券ID -> 本节点令牌桶 未限制时为空
+    private final Map<Long, Limit> limits = new ConcurrentHashMap<>();
+
+    public SeckillRateLimiter(StringRedisTemplate stringRedisTemplate, Environment environment,
+                              MeterRegistry meterRegistry) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.environment = environment;
+        this.nodeRejected = Counter.builder("seckill.admission.rejected").tag("layer", LAYER_NODE)
+                .register(meterRegistry);
+        this.globalRejected = Counter.builder("seckill.admission.rejected").tag("layer", LAYER_GLOBAL)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 尝试准入一次秒杀请求
+     * @param voucherId
+     * @return 被拦截的层 LAYER_NODE / LAYER_GLOBAL 准入时返回null
+     */
+    public String tryAcquire(Long voucherId) {
+        if (!environment.getProperty(PREFIX + "enabled", Boolean.class, false)) {
+            return null;
+        }
+        Limit limit = limits.computeIfAbsent(voucherId, this::load);
+        if (limit.nodeBucket != null && !limit.nodeBucket.tryAcquire()) {
+            nodeRejected.increment();
+            return LAYER_NODE;
+        }
+        if (limit.globalRate > 0) {
+            Long allowed = stringRedisTemplate.execute(
+                    TOKEN_BUCKET_SCRIPT,
+                    Collections.singletonList(SECKILL_BUCKET_KEY + voucherId),
+                    String.valueOf(limit.globalRate),
+                    String.valueOf(limit.globalBurst),
+                    String.valueOf(System.currentTimeMillis()));
+            if (allowed == null || allowed != 1) {
+                globalRejected.increment();
+                return LAYER_GLOBAL;
+            }
+        }
+        return null;
+    }
+
+    private Limit load(Long voucherId) {
+        double nodeRate = property(voucherId, "node-rate", 0);
+        double nodeBurst = property(voucherId, "node-burst", nodeRate);
+        double globalRate = property(voucherId, "global-rate", 0);
+        double globalBurst = property(voucherId, "global-burst", globalRate);
+        TokenBucket nodeBucket = nodeRate > 0 ? new TokenBucket(nodeRate, Math.max(nodeBurst, 1)) : null;
+        return new Limit(nodeBucket, globalRate, Math.max(globalBurst, 1));
+    }
+
+    private double property(Long voucherId, String key, double defaultValue) {
+        Double value = environment.getProperty(PREFIX + "vouchers." + voucherId + "." + key, Double.class);
+        if (value != null) {
+            return value;
+        }
+        return environment.getProperty(PREFIX + key, Double.class, defaultValue);
+    }
+
+    private static class Limit {
+        private final TokenBucket nodeBucket;
+        private final double globalRate;
+        private final double globalBurst;
+
+        private Limit(TokenBucket nodeBucket, double globalRate, double globalBurst) {
+            this.nodeBucket = nodeBucket;
+            this.globalRate = globalRate;
+            this.globalBurst = globalBurst;
+        }
+    }
+}
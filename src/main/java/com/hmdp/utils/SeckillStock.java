@@ -0,0 +1,137 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_SEGMENTS_KEY;
+
+/**
+ * 秒杀库存计数器
+ * 分段模式下库存拆分到K个子key seckill:stock:{voucherId:i} 花括号为哈希标签 各分段落在不同的槽上
+ * 每次秒杀按用户ID选择一个分段作为脚本的KEYS[1] 该分段读到0时才换下一个分段重试
+ * 分段数在创建秒杀券时确定并保存在 seckill:stock-segments:{voucherId} 之后修改配置只影响新建的券
+ * 没有保存分段数的券(分段功能上线前创建)按1个分段读取 seckill:stock:{voucherId}
+ */
+@Component
+public class SeckillStock {
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private SoldOutMemo soldOutMemo;
+
+    // 新建秒杀券的库存分段数
+    @Value("${hmdp.seckill.stock.segments:1}")
+    private int segments;
+
+    // 券ID -> 分段数 创建后不再变化 可以一直缓存
+    private final Map<Long, Integer> voucherSegments = new ConcurrentHashMap<>();
+
+    /**
+     * 秒杀券的库存分段数
+     * @param voucherId
+     * @return
+     */
+    public int segments(Long voucherId) {
+        return voucherSegments.computeIfAbsent(voucherId, id -> {
+            String value = stringRedisTemplate.opsForValue().get(SECKILL_STOCK_SEGMENTS_KEY + id);
+            return value == null ? 1 : Math.max(Integer.parseInt(value), 1);
+        });
+    }
+
+    /**
+     * 用户的首选分段 同一用户总是先访问同一分段
+     * @param voucherId
+     * @param userId
+     * @return
+     */
+    public int homeSegment(Long voucherId, Long userId) {
+        return (int) Math.floorMod(userId, (long) segments(voucherId));
+    }
+
+    /**
+     * 分段库存key 只有一个分段时沿用 seckill:stock:{voucherId}
+     * @param voucherId
+     * @param segment
+     * @return
+     */
+    public String key(Long voucherId, int segment) {
+        return segments(voucherId) == 1 ? SECKILL_STOCK_KEY + voucherId
+                : SECKILL_STOCK_KEY + "{" + voucherId + ":" + segment + "}";
+    }
+
+    /**
+     * 新建秒杀券时写入库存 按当前配置的分段数平均拆分 余数分给前面的分段
+     * 分段数随券保存 逐个key写入 不使用跨槽的MSET
+     * @param voucherId
+     * @param stock
+     */
+    public void set(Long voucherId, int stock) {
+        int k = Math.max(segments, 1);
+        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_SEGMENTS_KEY + voucherId, String.valueOf(k));
+        voucherSegments.put(voucherId, k);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (int i = 0; i < k; i++) {
+                int amount = stock / k + (i < stock % k ? 1 : 0);
+                conn.set(key(voucherId, i), String.valueOf(amount));
+            }
+            return null;
+        });
+        soldOutMemo.clear(voucherId);
+    }
+
+    /**
+     * 补充库存 增量平均分到各分段 并清除各节点的售罄标记
+     * @param voucherId
+     * @param amount
+     */
+    public void add(Long voucherId, int amount) {
+        int k = segments(voucherId);
+        for (int i = 0; i < k; i++) {
+            int delta = amount / k + (i < amount % k ? 1 : 0);
+            if (delta > 0) {
+                stringRedisTemplate.opsForValue().increment(key(voucherId, i), delta);
+            }
+        }
+        soldOutMemo.clear(voucherId);
+    }
+
+    /**
+     * 汇总各分段的剩余库存 用于监控
+     * @param voucherId
+     * @return
+     */
+    public int total(Long voucherId) {
+        int k = segments(voucherId);
+        List<String> keys = new ArrayList<>(k);
+        for (int i = 0; i < k; i++) {
+            keys.add(key(voucherId, i));
+        }
+        // 分段可能位于不同的槽 逐个读取
+        List<Object> values = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String key : keys) {
+                conn.get(key);
+            }
+            return null;
+        });
+        int total = 0;
+        for (Object value : values) {
+            if (value != null) {
+                total += Math.max(Integer.parseInt(value.toString()), 0);
+            }
+        }
+        return total;
+    }
+}
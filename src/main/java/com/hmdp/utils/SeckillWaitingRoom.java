@@ -0,0 +1,284 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.QueueStatusDTO;
+import com.hmdp.dto.Result;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀排队室
+ * 用户先领取排队号(ZSET按排队序号排序) 调度任务按剩余库存分批放行 为放行的用户发放短期准入凭证
+ * 已发放未使用的凭证记录在 seckill:admitted:{voucherId} 放行人数不超过 剩余库存 - 未使用凭证数
+ * 秒杀脚本消费准入凭证 未放行的请求直接拒绝
+ * 用户可轮询或长轮询排队位置 长轮询请求由本节点定时批量检查 不占用请求线程
+ */
+@Component
+@Slf4j
+public class SeckillWaitingRoom {
+
+    private static final String WAITING_ROOM_EXECUTOR = "waiting-room";
+
+    private static final DefaultRedisScript<Long> ENTER_SCRIPT;
+    private static final DefaultRedisScript<Long> ADMIT_SCRIPT;
+    static {
+        ENTER_SCRIPT = new DefaultRedisScript<>();
+        ENTER_SCRIPT.setResultType(Long.class);
+        ENTER_SCRIPT.setLocation(new ClassPathResource("script/queue_enter.lua"));
+        ADMIT_SCRIPT = new DefaultRedisScript<>();
+        ADMIT_SCRIPT.setResultType(Long.class);
+        ADMIT_SCRIPT.setLocation(new ClassPathResource("script/queue_admit.lua"));
+    }
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private RedissonClient redissonClient;
+    @Autowired
+    private SeckillStock seckillStock;
+    @Autowired
+    private SoldOutMemo soldOutMemo;
+    @Autowired
+    private ExecutorRegistry executorRegistry;
+
+    @Value("${hmdp.seckill.waiting-room.enabled:false}")
+    private boolean enabled;
+    // 每批最多放行人数 实际不超过剩余库存
+    @Value("${hmdp.seckill.waiting-room.batch-size:100}")
+    private int batchSize;
+    // 放行间隔
+    @Value("${hmdp.seckill.waiting-room.admit-interval-millis:500}")
+    private long admitIntervalMillis;
+    // 准入凭证有效期
+    @Value("${hmdp.seckill.waiting-room.token-ttl-seconds:30}")
+    private long tokenTtlSeconds;
+    // 长轮询检查间隔与最长等待时间
+    @Value("${hmdp.seckill.waiting-room.poll-interval-millis:200}")
+    private long pollIntervalMillis;
+    @Value("${hmdp.seckill.waiting-room.max-wait-millis:30000}")
+    private long maxWaitMillis;
+
+    // 本节点等待结果的长轮询请求
+    private final Set<Waiter> waiters = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        ScheduledExecutorService scheduler = executorRegistry.registerScheduled(WAITING_ROOM_EXECUTOR, 1);
+        scheduler.scheduleWithFixedDelay(this::admit, admitIntervalMillis, admitIntervalMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::resolveWaiters, pollIntervalMillis, pollIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 秒杀脚本中需要消费的准入凭证key 未开启排队时为空串
+     * @param voucherId
+     * @param userId
+     * @return
+     */
+    public String admitKey(Long voucherId, Long userId) {
+        return enabled ? SECKILL_ADMIT_KEY + voucherId + ":" + userId : "";
+    }
+
+    /**
+     * 领取排队号 重复领取返回当前位置
+     * @param voucherId
+     * @param userId
+     * @return
+     */
+    public QueueStatusDTO enter(Long voucherId, Long userId) {
+        if (soldOutMemo.isSoldOut(voucherId)) {
+            return new QueueStatusDTO(QueueStatusDTO.SOLD_OUT, null, null);
+        }
+        Long rank = stringRedisTemplate.execute(
+                ENTER_SCRIPT,
+                Arrays.asList(SECKILL_QUEUE_KEY + voucherId, SECKILL_QUEUE_SEQ_KEY + voucherId,
+                        SECKILL_QUEUE_ACTIVE_KEY, admitKey(voucherId, userId)),
+                userId.toString(),
+                voucherId.toString());
+        if (rank == null || rank < 0) {
+            return new QueueStatusDTO(QueueStatusDTO.ADMITTED, null, null);
+        }
+        return waiting(rank);
+    }
+
+    /**
+     * 查询排队状态
+     * @param voucherId
+     * @param userId
+     * @return
+     */
+    public QueueStatusDTO status(Long voucherId, Long userId) {
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.exists(admitKey(voucherId, userId));
+            conn.zRank(SECKILL_QUEUE_KEY + voucherId, userId.toString());
+            return null;
+        });
+        return toStatus(voucherId, results.get(0), results.get(1));
+    }
+
+    /**
+     * 长轮询排队状态 放行或售罄时立即返回 否则最多等待wait毫秒后返回当前位置
+     * @param voucherId
+     * @param userId
+     * @param wait
+     * @return
+     */
+    public DeferredResult<Result> await(Long voucherId, Long userId, long wait) {
+        DeferredResult<Result> result = new DeferredResult<>(Math.min(wait, maxWaitMillis));
+        QueueStatusDTO status = status(voucherId, userId);
+        if (!QueueStatusDTO.WAITING.equals(status.getStatus()) || wait <= 0) {
+            result.setResult(Result.ok(status));
+            return result;
+        }
+        Waiter waiter = new Waiter(voucherId, userId, result);
+        waiters.add(waiter);
+        result.onTimeout(() -> {
+            waiters.remove(waiter);
+            result.setResult(Result.ok(status(voucherId, userId)));
+        });
+        result.onCompletion(() -> waiters.remove(waiter));
+        return result;
+    }
+
+    /**
+     * 按剩余库存分批放行 多节点部署时每张券同一时刻只由一个节点放行
+     */
+    private void admit() {
+        try {
+            Set<String> voucherIds = stringRedisTemplate.opsForSet().members(SECKILL_QUEUE_ACTIVE_KEY);
+            if (voucherIds == null) {
+                return;
+            }
+            for (String id : voucherIds) {
+                admit(Long.valueOf(id));
+            }
+        } catch (Exception e) {
+            log.error("SeckillWaitingRoom:admit 放行失败", e);
+        }
+    }
+
+    private void admit(Long voucherId) {
+        RLock lock = redissonClient.getLock(LOCK_WAITING_ROOM_KEY + voucherId);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            String queueKey = SECKILL_QUEUE_KEY + voucherId;
+            int stock = seckillStock.total(voucherId);
+            if (stock <= 0) {
+                // 售罄 停止放行 排队用户查询时得到售罄结果
+                stringRedisTemplate.opsForSet().remove(SECKILL_QUEUE_ACTIVE_KEY, voucherId.toString());
+                stringRedisTemplate.delete(queueKey);
+                soldOutMemo.markSoldOut(voucherId);
+                return;
+            }
+            Long admitted = stringRedisTemplate.execute(
+                    ADMIT_SCRIPT,
+                    Arrays.asList(queueKey, SECKILL_ADMITTED_KEY + voucherId),
+                    String.valueOf(batchSize),
+                    SECKILL_ADMIT_KEY + voucherId + ":",
+                    String.valueOf(tokenTtlSeconds),
+                    String.valueOf(stock),
+                    String.valueOf(System.currentTimeMillis()));
+            if (admitted != null && admitted > 0) {
+                log.info("SeckillWaitingRoom:admit 放行 voucherId:{} 人数:{} 剩余库存:{}", voucherId, admitted, stock);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 批量检查本节点的长轮询请求 一次pipeline完成
+     */
+    private void resolveWaiters() {
+        if (waiters.isEmpty()) {
+            return;
+        }
+        try {
+            List<Waiter> batch = new ArrayList<>(waiters);
+            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Waiter waiter : batch) {
+                    conn.exists(admitKey(waiter.voucherId, waiter.userId));
+                    conn.zRank(SECKILL_QUEUE_KEY + waiter.voucherId, waiter.userId.toString());
+                }
+                return null;
+            });
+            for (int i = 0; i < batch.size(); i++) {
+                Waiter waiter = batch.get(i);
+                QueueStatusDTO status = toStatus(waiter.voucherId, results.get(2 * i), results.get(2 * i + 1));
+                if (!QueueStatusDTO.WAITING.equals(status.getStatus())) {
+                    waiters.remove(waiter);
+                    waiter.result.setResult(Result.ok(status));
+                }
+            }
+        } catch (Exception e) {
+            log.error("SeckillWaitingRoom:resolveWaiters 检查失败", e);
+        }
+    }
+
+    private QueueStatusDTO toStatus(Long voucherId, Object admitted, Object rank) {
+        if (Boolean.TRUE.equals(admitted)) {
+            return new QueueStatusDTO(QueueStatusDTO.ADMITTED, null, null);
+        }
+        if (rank != null) {
+            return waiting((Long) rank);
+        }
+        if (soldOutMemo.isSoldOut(voucherId)) {
+            return new QueueStatusDTO(QueueStatusDTO.SOLD_OUT, null, null);
+        }
+        return new QueueStatusDTO(QueueStatusDTO.NOT_QUEUED, null, null);
+    }
+
+    /**
+     * 排队中 按每次放行人数估算下次查询间隔
+     * @param rank
+     * @return
+     */
+    private QueueStatusDTO waiting(long rank) {
+        long batches = rank / Math.max(batchSize, 1);
+        return new QueueStatusDTO(QueueStatusDTO.WAITING, rank + 1,
+                Math.max(admitIntervalMillis, batches * admitIntervalMillis));
+    }
+
+    private static class Waiter {
+        private final Long voucherId;
+        private final Long userId;
+        private final DeferredResult<Result> result;
+
+        private Waiter(Long voucherId, Long userId, DeferredResult<Result> result) {
+            this.voucherId = voucherId;
+            this.userId = userId;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 秒杀券售罄标记
+ * 秒杀脚本返回库存不足后在本节点记录 并广播给其他节点 之后的请求不再访问Redis
+ * 标记带有过期时间 错过补货广播时最多在过期后恢复
+ */
+@Component
+@Slf4j
+public class SoldOutMemo {
+
+    private static final String SOLD_OUT = "+";
+    private static final String REPLENISHED = "-";
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private RedisMessageListenerContainer listenerContainer;
+
+    @Value("${hmdp.seckill.sold-out.enabled:true}")
+    private boolean enabled;
+    @Value("${hmdp.seckill.sold-out.ttl-seconds:60}")
+    private long ttlSeconds;
+
+    // 券ID -> 标记过期时间
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        // 订阅售罄/补货广播 消息格式为 +券ID 或 -券ID
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            Long voucherId = Long.valueOf(body.substring(1));
+            if (body.startsWith(SOLD_OUT)) {
+                mark(voucherId);
+            } else {
+                soldOut.remove(voucherId);
+            }
+            log.debug("SoldOutMemo 收到售罄广播:{}", body);
+        }, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    /**
+     * 是否已售罄 不访问Redis
+     * @param voucherId
+     * @return
+     */
+    public boolean isSoldOut(Long voucherId) {
+        if (!enabled) {
+            return false;
+        }
+        Long expireAt = soldOut.get(voucherId);
+        if (expireAt == null) {
+            return false;
+        }
+        if (expireAt < System.currentTimeMillis()) {
+            soldOut.remove(voucherId, expireAt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 标记售罄并广播 本节点已标记时不重复广播
+     * @param voucherId
+     */
+    public void markSoldOut(Long voucherId) {
+        if (!enabled || isSoldOut(voucherId)) {
+            return;
+        }
+        mark(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, SOLD_OUT + voucherId);
+        log.info("SoldOutMemo:markSoldOut 秒杀券已售罄:{}", voucherId);
+    }
+
+    /**
+     * 补货后清除售罄标记并广播
+     * @param voucherId
+     */
+    public void clear(Long voucherId) {
+        soldOut.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, REPLENISHED + voucherId);
+    }
+
+    private void mark(Long voucherId) {
+        soldOut.put(voucherId, System.currentTimeMillis() + ttlSeconds * 1000);
+    }
+}
@@ -0,0 +1,162 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 订单消息队列积压统计
+ * 通过 XINFO GROUPS 获取消费者组的pending数与lag(Redis 7+)
+ * 低版本没有lag字段 只在需要积压做决策(自动伸缩或背压)时按last-delivered-id之后的消息数估算 最多统计lag-scan-limit条 否则lag记为0
+ * 指标 seckill.stream.lag / seckill.stream.pending 按消息队列统计
+ * 另通过 XPENDING 统计本节点消费者名下的未确认消息数 供节点健康检查使用
+ */
+@Component
+@Slf4j
+public class StreamLagMonitor {
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final MeterRegistry meterRegistry;
+
+    // 低版本Redis估算lag时最多统计的消息数 达到上限的积压已足够触发扩容或背压
+    @Value("${hmdp.seckill.stream.lag-scan-limit:1000}")
+    private long lagScanLimit;
+
+    // 消息队列 -> 未投递消息数
+    private final Map<String, Long> lags = new ConcurrentHashMap<>();
+    // 消息队列 -> 已投递未确认消息数
+    private final Map<String, Long> pendings = new ConcurrentHashMap<>();
+    // 消息队列 -> 本节点消费者名下的未确认消息数
+    private final Map<String, Long> localPendings = new ConcurrentHashMap<>();
+    private volatile long sampledAt;
+
+    public StreamLagMonitor(StringRedisTemplate stringRedisTemplate, MeterRegistry meterRegistry) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * 采样各消息队列的积压
+     * @param streamKeys
+     * @param group 消费者组
+     * @param consumerPrefix 本节点消费者名称前缀
+     * @param estimateLag 低版本Redis是否扫描消息估算lag 只在开启自动伸缩或背压时需要
+     */
+    public void sample(Collection<String> streamKeys, String group, String consumerPrefix, boolean estimateLag) {
+        for (String streamKey : streamKeys) {
+            try {
+                StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(streamKey);
+                for (int i = 0; i < groups.groupCount(); i++) {
+                    StreamInfo.XInfoGroup info = groups.get(i);
+                    if (!group.equals(info.groupName())) {
+                        continue;
+                    }
+                    update(streamKey, lag(streamKey, info, estimateLag), info.pendingCount());
+                }
+                localPendings.put(streamKey, localPending(streamKey, group, consumerPrefix));
+            } catch (Exception e) {
+                // 采样失败时不保留旧值 避免按过期的积压持续拒绝下单
+                lags.remove(streamKey);
+                pendings.remove(streamKey);
+                log.warn("StreamLagMonitor 采样失败:{} {}", streamKey, e.getMessage());
+            }
+        }
+        sampledAt = System.currentTimeMillis();
+    }
+
+    public long lag(String streamKey) {
+        return lags.getOrDefault(streamKey, 0L);
+    }
+
+    /**
+     * 消息队列积压 未投递+未确认 未采样或采样失败时为0
+     * @param streamKey
+     * @return
+     */
+    public long backlog(String streamKey) {
+        return lags.getOrDefault(streamKey, 0L) + pendings.getOrDefault(streamKey, 0L);
+    }
+
+    public long totalLag() {
+        return lags.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    public long totalPending() {
+        return pendings.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    /**
+     * 本节点消费者名下的未确认消息数 只反映本节点的处理能力 不受其他节点或整体积压影响
+     * @return
+     */
+    public long localPending() {
+        return localPendings.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    /**
+     * 最近一次采样时间 未采样时为0
+     * @return
+     */
+    public long sampledAt() {
+        return sampledAt;
+    }
+
+    private void update(String streamKey, long lag, long pending) {
+        if (lags.put(streamKey, lag) == null) {
+            Gauge.builder("seckill.stream.lag", lags, m -> m.getOrDefault(streamKey, 0L))
+                    .tag("stream", streamKey)
+                    .register(meterRegistry);
+            Gauge.builder("seckill.stream.pending", pendings, m -> m.getOrDefault(streamKey, 0L))
+                    .tag("stream", streamKey)
+                    .register(meterRegistry);
+        }
+        pendings.put(streamKey, pending);
+    }
+
+    private long localPending(String streamKey, String group, String consumerPrefix) {
+        PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(streamKey, group);
+        if (summary == null) {
+            return 0;
+        }
+        return summary.getPendingMessagesPerConsumer().entrySet().stream()
+                .filter(entry -> entry.getKey().startsWith(consumerPrefix))
+                .mapToLong(Map.Entry::getValue)
+                .sum();
+    }
+
+    private long lag(String streamKey, StreamInfo.XInfoGroup info, boolean estimate) {
+        Object lag = info.getRaw().get("lag");
+        if (lag instanceof Long) {
+            return (Long) lag;
+        }
+        if (!estimate) {
+            return 0;
+        }
+        // 低版本Redis 统计last-delivered-id之后的消息数 结果包含last-delivered-id本身时减去
+        String lastDelivered = info.lastDeliveredId();
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().range(streamKey,
+                Range.rightUnbounded(Range.Bound.inclusive(lastDelivered)),
+                RedisZSetCommands.Limit.limit().count((int) lagScanLimit + 1));
+        if (records == null || records.isEmpty()) {
+            return 0;
+        }
+        long count = records.size();
+        if (lastDelivered.equals(records.get(0).getId().getValue())) {
+            count--;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,38 @@
+package com.hmdp.utils;
+
+/**
+ * 进程内令牌桶 按固定速率生成令牌 最多积累capacity个
+ */
+public class TokenBucket {
+
+    private final double tokensPerNano;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param ratePerSecond 每秒生成的令牌数
+     * @param capacity 桶容量 即允许的突发请求数
+     */
+    public TokenBucket(double ratePerSecond, double capacity) {
+        this.tokensPerNano = ratePerSecond / 1_000_000_000d;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * 尝试获取一个令牌 不等待
+     * @return 是否获取成功
+     */
+    public synchronized boolean tryAcquire() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+}
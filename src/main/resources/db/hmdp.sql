@@ -1262,6 +1262,9 @@ INSERT INTO `tb_voucher` VALUES (1, 1, '50元代金券', '周一至周日均可
 -- ----------------------------
 -- Table structure for tb_voucher_order
 -- ----------------------------
+-- uk_user_voucher 保证同一用户对同一张券只有一个订单 对普通券同样生效 订单落库依赖该索引识别重复投递
+-- 已有库升级: 先清理重复的(user_id, voucher_id)订单 再执行
+-- ALTER TABLE `tb_voucher_order` ADD UNIQUE INDEX `uk_user_voucher`(`user_id`, `voucher_id`) USING BTREE;
 DROP TABLE IF EXISTS `tb_voucher_order`;
 CREATE TABLE `tb_voucher_order`  (
   `id` bigint(20) NOT NULL COMMENT '主键',
@@ -1274,7 +1277,8 @@ CREATE TABLE `tb_voucher_order`  (
   `use_time` timestamp NULL DEFAULT NULL COMMENT '核销时间',
   `refund_time` timestamp NULL DEFAULT NULL COMMENT '退款时间',
   `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
-  PRIMARY KEY (`id`) USING BTREE
+  PRIMARY KEY (`id`) USING BTREE,
+  UNIQUE INDEX `uk_user_voucher`(`user_id`, `voucher_id`) USING BTREE
 ) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Compact;
 
 -- ----------------------------
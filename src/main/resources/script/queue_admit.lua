@@ -0,0 +1,30 @@
+-- 排队队列
+local queueKey = KEYS[1]
+-- 已发放未使用的准入凭证 member为用户ID score为过期时间(毫秒)
+local admittedKey = KEYS[2]
+-- 每批最多放行人数
+local batch = tonumber(ARGV[1])
+-- 准入凭证key前缀
+local admitPrefix = ARGV[2]
+-- 准入凭证有效期(秒)
+local ttl = tonumber(ARGV[3])
+-- 剩余库存
+local stock = tonumber(ARGV[4])
+-- 当前时间(毫秒)
+local now = tonumber(ARGV[5])
+
+-- 清理已过期的凭证 剩余的是仍可能下单的用户
+redis.call('zremrangebyscore',admittedKey,'-inf',now)
+-- 本批准入人数不超过 剩余库存 - 已发放未使用的凭证数
+local count = math.min(batch, stock - redis.call('zcard',admittedKey))
+if(count <= 0) then
+    return 0
+end
+-- 取出队首用户 发放准入凭证
+local users = redis.call('zpopmin',queueKey,count)
+for i = 1, #users, 2 do
+    redis.call('set',admitPrefix..users[i],'1','EX',ttl)
+    redis.call('zadd',admittedKey,now + ttl * 1000,users[i])
+end
+redis.call('pexpire',admittedKey,ttl * 1000)
+return #users / 2
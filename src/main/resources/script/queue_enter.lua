@@ -0,0 +1,25 @@
+-- 排队队列
+local queueKey = KEYS[1]
+-- 排队序号
+local seqKey = KEYS[2]
+-- 有排队的秒杀券集合
+local activeKey = KEYS[3]
+-- 用户准入凭证
+local admitKey = KEYS[4]
+local userId = ARGV[1]
+local voucherId = ARGV[2]
+
+-- 已获得准入 无需排队
+if(redis.call('exists',admitKey) == 1) then
+    return -1
+end
+-- 已在队列中 返回当前位置
+local rank = redis.call('zrank',queueKey,userId)
+if(rank) then
+    return rank
+end
+-- 按排队序号入队 保证先到先得
+local seq = redis.call('incr',seqKey)
+redis.call('zadd',queueKey,seq,userId)
+redis.call('sadd',activeKey,voucherId)
+return redis.call('zrank',queueKey,userId)
@@ -1,27 +1,83 @@
 
+-- 本次扣减的库存分段 由调用方按用户ID选择
+local stockKey = KEYS[1]
+
 local voucherId = ARGV[1]
 local userId = ARGV[2]
-local orderId = ARGV[3]
+-- 订单ID序列号key
+local idKey = ARGV[3]
+-- 按用户ID路由的订单消息队列分区
+local streamKey = ARGV[4]
+-- 订单ID时间部分 按十进制拆成高位与低9位
+local idHigh = tonumber(ARGV[5])
+local idLow = tonumber(ARGV[6])
+-- 一人一单去重方式 set 或 bitmap 以及每个位图key覆盖的用户数
+local dedupe = ARGV[7]
+local chunkBits = tonumber(ARGV[8])
+-- 排队室准入凭证 未开启排队时为空串
+local admitKey = ARGV[9]
+-- 订单状态记录有效期(秒)
+local statusTtl = ARGV[10]
 
-local stockKey = "seckill:stock:"..voucherId
 local orderKey = "seckill:order:"..voucherId
+local offset = nil
+if(dedupe == 'bitmap') then
+    -- 按用户ID分块 每个用户占1位
+    local uid = tonumber(userId)
+    orderKey = orderKey..":bitmap:"..math.floor(uid / chunkBits)
+    offset = uid % chunkBits
+end
 
+-- 判断本分段库存是否充足 不足时调用方换下一个分段重试 因此先于准入凭证判断 不消耗凭证
+if(tonumber(redis.call('get',stockKey) or '0') <= 0) then
+    return {1}
+end
 
--- 判断库存是否充足
-if(tonumber(redis.call('get',stockKey))<=0) then
-    -- 库存不足
-    return 1
+-- 开启排队时 必须持有准入凭证 凭证只能使用一次
+if(admitKey ~= '') then
+    if(redis.call('del',admitKey) == 0) then
+        return {3}
+    end
+    -- 凭证已使用 不再计入已发放未使用的凭证数
+    redis.call('zrem',"seckill:admitted:"..voucherId,userId)
 end
+
 -- 判断用户是否下过单
-if(redis.call('sismember',orderKey,userId) == 1) then
+local ordered
+if(offset) then
+    ordered = redis.call('getbit',orderKey,offset)
+else
+    ordered = redis.call('sismember',orderKey,userId)
+end
+if(ordered == 1) then
     -- 用户已经下过单
-    return 2
+    return {2}
 end
 -- 用户可下单
+-- 生成订单ID 时间部分加自增序列号
+local seq = redis.call('incr',idKey)
+local low = idLow + seq
+local high = idHigh + math.floor(low / 1000000000)
+low = low % 1000000000
+local orderId
+if(high > 0) then
+    orderId = string.format('%d%09d',high,low)
+else
+    orderId = string.format('%d',low)
+end
 -- 减库存
 redis.call('incrby',stockKey,-1)
 -- 保存用户ID
-redis.call('sadd',orderKey,userId)
--- 发送订单消息至消息队列
-redis.call('xadd','stream.order','*','userId',userId,'voucherId',voucherId,'id',orderId)
-return 0
+if(offset) then
+    redis.call('setbit',orderKey,offset,1)
+else
+    redis.call('sadd',orderKey,userId)
+end
+-- 订单状态记录为处理中
+redis.call('set','order:status:'..orderId,'0','EX',statusTtl)
+-- 发送订单消息至消息队列 附带扣减的库存分段 转入死信队列时据此归还库存
+-- 订单日志模式下由调用方写入本地日志
+if(streamKey ~= '') then
+    redis.call('xadd',streamKey,'*','userId',userId,'voucherId',voucherId,'id',orderId,'stockKey',stockKey)
+end
+return {0,orderId}
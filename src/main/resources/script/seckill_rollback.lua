@@ -0,0 +1,24 @@
+
+-- 撤销一次已成功的秒杀 订单未能交给后续处理时调用
+-- 归还库存 删除一人一单记录 订单状态记为失败
+-- 秒杀脚本实际扣减的库存分段key
+local stockKey = KEYS[1]
+
+local voucherId = ARGV[1]
+local userId = ARGV[2]
+local orderId = ARGV[3]
+-- 一人一单去重方式 与秒杀脚本一致
+local dedupe = ARGV[4]
+local chunkBits = tonumber(ARGV[5])
+local statusTtl = ARGV[6]
+
+local orderKey = "seckill:order:"..voucherId
+if(dedupe == 'bitmap') then
+    local uid = tonumber(userId)
+    redis.call('setbit',orderKey..":bitmap:"..math.floor(uid / chunkBits),uid % chunkBits,0)
+else
+    redis.call('srem',orderKey,userId)
+end
+redis.call('set','order:status:'..orderId,'2','EX',statusTtl)
+-- 返回归还后的库存
+return redis.call('incr',stockKey)
@@ -0,0 +1,26 @@
+-- 令牌桶key
+local key = KEYS[1]
+-- 每秒生成令牌数
+local rate = tonumber(ARGV[1])
+-- 桶容量
+local capacity = tonumber(ARGV[2])
+-- 当前时间(毫秒)
+local now = tonumber(ARGV[3])
+
+local bucket = redis.call('hmget',key,'tokens','ts')
+local tokens = tonumber(bucket[1]) or capacity
+local ts = tonumber(bucket[2]) or now
+-- 按流逝时间补充令牌
+if(now > ts) then
+    tokens = math.min(capacity, tokens + (now - ts) * rate / 1000)
+    ts = now
+end
+local allowed = 0
+if(tokens >= 1) then
+    tokens = tokens - 1
+    allowed = 1
+end
+redis.call('hmset',key,'tokens',tokens,'ts',ts)
+-- 桶补满后即可过期
+redis.call('pexpire',key,math.ceil(capacity / rate * 1000) + 1000)
+return allowed
@@ -0,0 +1,91 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CacheSerializerTest {
+
+    private final CacheSerializer smile = new CacheSerializer("smile", 64);
+    private final CacheSerializer json = new CacheSerializer("json", 64);
+
+    @Test
+    void smileRoundTrip() {
+        Shop shop = shop(1L).setCreateTime(LocalDateTime.of(2026, 1, 1, 12, 0, 0));
+        assertEquals(shop, smile.deserialize(smile.serialize(shop), Shop.class));
+    }
+
+    @Test
+    void smileCompressesLargeValues() {
+        Shop shop = shop(1L).setImages(StrUtil.repeat("https://img.example.com/a.jpg,", 50));
+        byte[] bytes = smile.serialize(shop);
+        assertTrue(bytes.length < shop.getImages().length());
+        assertEquals(shop, smile.deserialize(bytes, Shop.class));
+    }
+
+    @Test
+    void smileListRoundTrip() {
+        List<Shop> shops = Arrays.asList(shop(1L), shop(2L));
+        assertEquals(shops, smile.deserializeList(smile.serialize(shops), Shop.class));
+    }
+
+    @Test
+    void smileLogicalRoundTrip() {
+        LocalDateTime expireTime = LocalDateTime.of(2026, 1, 1, 12, 0, 0, 123_000_000);
+        RedisData redisData = smile.deserializeLogical(
+                smile.serializeLogical(new RedisData(expireTime, shop(1L), 35L)), Shop.class);
+        assertEquals(expireTime, redisData.getExpireTime());
+        assertEquals(35L, redisData.getRebuildMillis());
+        assertEquals(shop(1L), redisData.getData());
+
+        RedisData withoutRebuild = smile.deserializeLogical(
+                smile.serializeLogical(new RedisData(expireTime, shop(1L), null)), Shop.class);
+        assertNull(withoutRebuild.getRebuildMillis());
+    }
+
+    @Test
+    void jsonModeWritesLegacyFormat() {
+        Shop shop = shop(1L);
+        byte[] bytes = json.serialize(shop);
+        assertArrayEquals(JSONUtil.toJsonStr(shop).getBytes(StandardCharsets.UTF_8), bytes);
+        assertEquals(shop, json.deserialize(bytes, Shop.class));
+    }
+
+    @Test
+    void readsLegacyJson() {
+        Shop shop = shop(1L);
+        byte[] legacy = JSONUtil.toJsonStr(shop).getBytes(StandardCharsets.UTF_8);
+        assertEquals(shop, smile.deserialize(legacy, Shop.class));
+
+        List<Shop> shops = Arrays.asList(shop(1L), shop(2L));
+        byte[] legacyList = JSONUtil.toJsonStr(shops).getBytes(StandardCharsets.UTF_8);
+        assertEquals(shops, smile.deserializeList(legacyList, Shop.class));
+    }
+
+    @Test
+    void readsLegacyLogicalJson() {
+        LocalDateTime expireTime = LocalDateTime.of(2026, 1, 1, 12, 0, 0);
+        byte[] legacy = JSONUtil.toJsonStr(new RedisData(expireTime, shop(1L), 35L))
+                .getBytes(StandardCharsets.UTF_8);
+        RedisData redisData = smile.deserializeLogical(legacy, Shop.class);
+        assertEquals(expireTime, redisData.getExpireTime());
+        assertEquals(35L, redisData.getRebuildMillis());
+        assertEquals(shop(1L), redisData.getData());
+    }
+
+    private static Shop shop(Long id) {
+        return new Shop().setId(id).setName("103茶餐厅").setTypeId(1L).setArea("大关")
+                .setX(120.149192).setY(30.316078).setAvgPrice(80L).setSold(4215).setScore(37);
+    }
+}
@@ -0,0 +1,65 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CountMinSketchTest {
+
+    @Test
+    void countsExactlyWithoutCollisions() {
+        CountMinSketch sketch = new CountMinSketch(4, 1024);
+        for (int i = 1; i <= 3; i++) {
+            assertEquals(i, sketch.add("cache:shop:1"));
+        }
+        sketch.add("cache:shop:2");
+        assertEquals(3, sketch.estimate("cache:shop:1"));
+        assertEquals(1, sketch.estimate("cache:shop:2"));
+        assertEquals(0, sketch.estimate("cache:shop:3"));
+    }
+
+    @Test
+    void neverUnderestimatesAndStaysWithinErrorBound() {
+        int width = 2048;
+        CountMinSketch sketch = new CountMinSketch(4, width);
+        int hot = 1000;
+        int cold = 10000;
+        for (int i = 0; i < hot; i++) {
+            sketch.add("seckill:stock:hot");
+        }
+        for (int i = 0; i < cold; i++) {
+            sketch.add("cache:shop:" + i);
+        }
+        // 误差上界 e * N / width
+        int bound = (int) Math.ceil(Math.E * (hot + cold) / width);
+        int estimate = sketch.estimate("seckill:stock:hot");
+        assertTrue(estimate >= hot);
+        assertTrue(estimate <= hot + bound, "estimate " + estimate);
+        for (int i = 0; i < cold; i++) {
+            assertTrue(sketch.estimate("cache:shop:" + i) >= 1);
+        }
+    }
+
+    @Test
+    void concurrentAddsAreNotLost() throws InterruptedException {
+        CountMinSketch sketch = new CountMinSketch(4, 1024);
+        int threads = 4;
+        int perThread = 10000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            pool.execute(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    sketch.add("cache:shop:1");
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(threads * perThread, sketch.estimate("cache:shop:1"));
+    }
+}
@@ -0,0 +1,85 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrderJournalTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void replaysOrdersAfterCheckpoint() throws IOException {
+        OrderJournal journal = new OrderJournal(dir, 4, 16, false);
+        journal.open(batch -> { }, 10);
+        for (long i = 1; i <= 6; i++) {
+            journal.append(order(i), 0);
+        }
+        List<VoucherOrder> polled = journal.poll(2, 0);
+        assertEquals(2, polled.size());
+        journal.commit(polled.size());
+
+        // 模拟进程重启 只重放检查点之后的订单
+        List<VoucherOrder> replayed = new ArrayList<>();
+        OrderJournal reopened = new OrderJournal(dir, 4, 16, false);
+        reopened.open(replayed::addAll, 10);
+        assertEquals(4, replayed.size());
+        assertEquals(3L, replayed.get(0).getId());
+        assertEquals(6L, replayed.get(3).getId());
+        assertEquals(0, reopened.backlog());
+
+        // 重放完成后继续追加 序号接续
+        assertEquals(6, reopened.append(order(7), 0));
+    }
+
+    @Test
+    void ignoresPartiallyWrittenRecord() throws IOException {
+        OrderJournal journal = new OrderJournal(dir, 4, 16, false);
+        journal.open(batch -> { }, 10);
+        journal.append(order(1), 0);
+        journal.flush();
+        // 追加一条未写标记的记录 模拟写入中途崩溃
+        File[] segments = dir.listFiles((d, name) -> name.endsWith(".journal"));
+        try (RandomAccessFile raf = new RandomAccessFile(segments[0], "rw")) {
+            raf.seek(32 + 4);
+            raf.writeLong(2);
+        }
+
+        List<VoucherOrder> replayed = new ArrayList<>();
+        new OrderJournal(dir, 4, 16, false).open(replayed::addAll, 10);
+        assertEquals(1, replayed.size());
+        assertEquals(1L, replayed.get(0).getId());
+    }
+
+    @Test
+    void appendFailsFastWhenRingIsFull() throws IOException {
+        OrderJournal journal = new OrderJournal(dir, 4, 2, false);
+        journal.open(batch -> { }, 10);
+        assertEquals(0, journal.append(order(1), 0));
+        assertEquals(1, journal.append(order(2), 0));
+        long start = System.nanoTime();
+        assertEquals(-1, journal.append(order(3), 20));
+        assertTrue(System.nanoTime() - start < 1_000_000_000L);
+
+        journal.commit(journal.poll(2, 0).size());
+        assertEquals(2, journal.append(order(3), 0));
+    }
+
+    private static VoucherOrder order(long id) {
+        VoucherOrder order = new VoucherOrder();
+        order.setId(id);
+        order.setUserId(100 + id);
+        order.setVoucherId(10L);
+        return order;
+    }
+}
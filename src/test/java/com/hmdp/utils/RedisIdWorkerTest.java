@@ -0,0 +1,53 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RedisIdWorkerTest {
+
+    @Test
+    void timePartHoldsSecondsSinceEpochInHighBits() {
+        assertEquals(0L, RedisIdWorker.timePart(LocalDateTime.of(2025, 1, 1, 0, 0, 0)));
+        long timePart = RedisIdWorker.timePart(LocalDateTime.of(2026, 10, 18, 8, 30, 15));
+        assertEquals(0L, timePart & 0xFFFFFFFFL);
+        assertEquals(LocalDateTime.of(2026, 10, 18, 8, 30, 15), LocalDateTime.of(2025, 1, 1, 0, 0, 0)
+                .plusSeconds(timePart >>> 32));
+    }
+
+    @Test
+    void scriptComposedIdMatchesTimePartPlusSequence() {
+        LocalDateTime[] times = {
+                LocalDateTime.of(2025, 1, 1, 0, 0, 0),
+                LocalDateTime.of(2025, 1, 1, 0, 0, 1),
+                LocalDateTime.of(2026, 10, 18, 8, 30, 15),
+                LocalDateTime.of(2090, 12, 31, 23, 59, 59)
+        };
+        long[] sequences = {1L, 999_999_999L, 1_000_000_000L, (1L << 31), (1L << 32) - 1};
+        for (LocalDateTime time : times) {
+            long timePart = RedisIdWorker.timePart(time);
+            for (long seq : sequences) {
+                assertEquals(String.valueOf(timePart + seq), composeLikeScript(timePart, seq),
+                        time + " seq:" + seq);
+            }
+        }
+    }
+
+    /**
+     * 按 seckill.lua 的方式拼接订单ID 全部运算使用双精度 与Lua数字一致
+     */
+    private static String composeLikeScript(long timePart, long seq) {
+        double radix = RedisIdWorker.ORDER_ID_RADIX;
+        double idHigh = Double.parseDouble(String.valueOf(timePart / RedisIdWorker.ORDER_ID_RADIX));
+        double idLow = Double.parseDouble(String.valueOf(timePart % RedisIdWorker.ORDER_ID_RADIX));
+        double low = idLow + seq;
+        double high = idHigh + Math.floor(low / radix);
+        low = low % radix;
+        if (high > 0) {
+            return String.format("%d%09d", (long) high, (long) low);
+        }
+        return String.format("%d", (long) low);
+    }
+}
@@ -0,0 +1,93 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 一人一单去重结构的内存对比 set与分块bitmap写入相同的连续用户ID 比较 MEMORY USAGE
+ * 需要可写的Redis 默认不运行 例如:
+ * mvn test -Dtest=SeckillDedupeBenchmark -Dhmdp.benchmark.redis-host=localhost -Dhmdp.benchmark.users=1000000
+ */
+@EnabledIfSystemProperty(named = "hmdp.benchmark.redis-host", matches = ".+")
+class SeckillDedupeBenchmark {
+
+    private static final int PIPELINE_SIZE = 10000;
+
+    @Test
+    void compareSetAndBitmap() {
+        String host = System.getProperty("hmdp.benchmark.redis-host");
+        int port = Integer.getInteger("hmdp.benchmark.redis-port", 6379);
+        long users = Long.getLong("hmdp.benchmark.users", 100000L);
+        long chunkBits = Long.getLong("hmdp.benchmark.chunk-bits", 1048576L);
+
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(host, port);
+        factory.afterPropertiesSet();
+        StringRedisTemplate template = new StringRedisTemplate(factory);
+        SeckillDedupe dedupe = new SeckillDedupe();
+        ReflectionTestUtils.setField(dedupe, "chunkBits", chunkBits);
+        String voucherId = "benchmark:" + System.currentTimeMillis();
+        String setKey = dedupe.setKey(voucherId);
+        List<String> bitmapKeys = new ArrayList<>();
+        for (long chunk = 0; chunk <= users / chunkBits; chunk++) {
+            bitmapKeys.add(dedupe.bitmapKey(voucherId, chunk * chunkBits));
+        }
+        try {
+            for (long from = 1; from <= users; from += PIPELINE_SIZE) {
+                long start = from;
+                long end = Math.min(from + PIPELINE_SIZE - 1, users);
+                template.executePipelined((RedisCallback<Object>) connection -> {
+                    for (long userId = start; userId <= end; userId++) {
+                        connection.sAdd(bytes(setKey), bytes(String.valueOf(userId)));
+                        connection.setBit(bytes(dedupe.bitmapKey(voucherId, userId)), userId % chunkBits, true);
+                    }
+                    return null;
+                });
+            }
+            long setBytes = memoryUsage(template, setKey);
+            long bitmapBytes = 0;
+            for (String key : bitmapKeys) {
+                bitmapBytes += memoryUsage(template, key);
+            }
+            System.out.printf("users:%d set:%d bytes (%.1f/user) bitmap:%d bytes in %d chunks (%.3f/user)%n",
+                    users, setBytes, (double) setBytes / users,
+                    bitmapBytes, bitmapKeys.size(), (double) bitmapBytes / users);
+            assertTrue(bitmapBytes < setBytes);
+        } finally {
+            template.delete(setKey);
+            template.delete(bitmapKeys);
+            factory.destroy();
+        }
+    }
+
+    /**
+     * MEMORY USAGE key SAMPLES 0 统计集合全部元素
+     */
+    private static long memoryUsage(StringRedisTemplate template, String key) {
+        Object bytes = template.execute((RedisCallback<Object>) connection -> execute(connection,
+                "USAGE", key, "SAMPLES", "0"));
+        return bytes instanceof Long ? (Long) bytes : 0L;
+    }
+
+    private static Object execute(RedisConnection connection, String... args) {
+        byte[][] raw = new byte[args.length][];
+        for (int i = 0; i < args.length; i++) {
+            raw[i] = bytes(args[i]);
+        }
+        return connection.execute("MEMORY", raw);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}